@@ -0,0 +1,457 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Chooses plays for seats without a human: players who left, and players who
+ * let their turn time out. A search deals the cards the bot can't see at random
+ * to the other seats (determinization) and plays every legal move out many
+ * times with a fast greedy policy, in parallel on a shared fork-join pool, then
+ * picks the move that won most often.
+ *
+ * All bots of a server share one engine. The pool size and an equal number of
+ * permits cap how many cores bots can use, whatever the number of tables; a
+ * search that finds no permit free, or that runs past the time budget, falls
+ * back to the greedy policy instead of waiting.
+ */
+public class BotEngine {
+
+    public static final int MAX_STRENGTH = 10;
+    private static final int PLAYOUTS_PER_STRENGTH = 32;    // Per move and worker.
+    private static final int MAX_PLAYOUT_TURNS = 400;
+
+    private final ForkJoinPool pool;
+    private final Semaphore permits;
+    private final int parallelism;
+    private final long budgetNanos;
+    private final int strength;
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * @param threads most cores bots may use at once, across all tables
+     * @param budget time a bot may think about one move
+     * @param strength 0 plays greedily without searching; 1 to MAX_STRENGTH
+     *        allow more playouts per move within the budget
+     */
+    public BotEngine(int threads, long budget, TimeUnit unit, int strength) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one bot thread is required.");
+        if (budget <= 0)
+            throw new IllegalArgumentException("The time budget must be positive.");
+        if (strength < 0 || strength > MAX_STRENGTH)
+            throw new IllegalArgumentException("The strength must be between 0 and " + MAX_STRENGTH + ".");
+        parallelism = threads;
+        budgetNanos = unit.toNanos(budget);
+        this.strength = strength;
+        permits = new Semaphore(threads);
+        final AtomicInteger count = new AtomicInteger();
+        pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("bot-search-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, false);
+    }
+
+    public int getStrength() {
+        return strength;
+    }
+
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    /* Moves decided by the greedy policy because no permit was free or the budget ran out. */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * Choose a play for a position. The future completes within the time budget,
+     * on a search thread, with a play that is legal in the position.
+     */
+    public CompletableFuture<PlayMessage> choosePlay(final Position position) {
+        final long deadline = System.nanoTime() + budgetNanos * 9 / 10;
+        final PlayMessage greedy = position.toPlay(greedyMove(position.counts, position.lastPlay));
+        CompletableFuture<PlayMessage> future = CompletableFuture.supplyAsync(new Supplier<PlayMessage>() {
+            public PlayMessage get() {
+                return position.toPlay(search(position, deadline));
+            }
+        }, pool);
+        return future.exceptionally(new Function<Throwable, PlayMessage>() {
+            public PlayMessage apply(Throwable e) {
+                fallbacks.increment();
+                return greedy;
+            }
+        }).completeOnTimeout(greedy, budgetNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private int search(Position position, long deadline) {
+        int[] moves = new int[512];
+        int moveCount = legalMoves(position.counts, position.lastPlay, moves);
+        if (moveCount == 1)
+            return moves[0];
+        if (strength == 0)
+            return greedyMove(position.counts, position.lastPlay);
+        if (System.nanoTime() >= deadline || !permits.tryAcquire()) {   // Waited too long in the pool, or bots are busy.
+            fallbacks.increment();
+            return greedyMove(position.counts, position.lastPlay);
+        }
+        int workers = 1;
+        while (workers < parallelism && workers < moveCount && permits.tryAcquire())
+            workers++;
+        try {
+            searches.increment();
+            List<Playouts> tasks = new ArrayList<Playouts>(workers);
+            for (int i = 0; i < workers; i++)
+                tasks.add(new Playouts(position, moves, moveCount, deadline, i));
+            ForkJoinTask.invokeAll(tasks);
+            int best = 0;
+            double bestScore = -1;
+            for (int m = 0; m < moveCount; m++) {
+                double score = 0;
+                int played = 0;
+                for (Playouts task : tasks) {
+                    score += task.scores[m];
+                    played += task.played[m];
+                }
+                if (played > 0 && score / played > bestScore) {
+                    bestScore = score / played;
+                    best = m;
+                }
+            }
+            return moves[best];
+        }
+        finally {
+            permits.release(workers);
+        }
+    }
+
+    /*
+     * One worker's share of a search: plays every move out in turn on fresh
+     * determinizations until the deadline or its playout quota.
+     */
+    private class Playouts extends RecursiveAction {
+
+        private final Position position;
+        private final int[] moves;
+        private final int moveCount;
+        private final long deadline;
+        private final int firstMove;
+        final double[] scores;
+        final int[] played;
+
+        Playouts(Position position, int[] moves, int moveCount, long deadline, int firstMove) {
+            this.position = position;
+            this.moves = moves;
+            this.moveCount = moveCount;
+            this.deadline = deadline;
+            this.firstMove = firstMove;
+            scores = new double[moveCount];
+            played = new int[moveCount];
+        }
+
+        protected void compute() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int[] unseen = new int[position.unseenTotal];
+            int[][] counts = new int[PokerTable.SEATS][CardRules.RANKS];
+            int[] left = new int[PokerTable.SEATS];
+            int k = 0;
+            for (int rank = 0; rank < CardRules.RANKS; rank++) {
+                for (int n = 0; n < position.unseen[rank]; n++)
+                    unseen[k++] = rank;
+            }
+            int quota = moveCount * strength * PLAYOUTS_PER_STRENGTH;
+            for (int i = 0; i < quota && System.nanoTime() < deadline; i++) {
+                int m = (firstMove + i) % moveCount;
+                scores[m] += playOut(moves[m], unseen, counts, left, random);
+                played[m]++;
+            }
+        }
+
+        /* Score of one random playout after our move: 1 for a win, less the more cards we hold at the end. */
+        private double playOut(int move, int[] unseen, int[][] counts, int[] left, ThreadLocalRandom random) {
+            System.arraycopy(position.counts, 0, counts[0], 0, CardRules.RANKS);
+            left[0] = position.cardsLeft[0];
+            int k = 0;
+            for (int seat = 1; seat < PokerTable.SEATS; seat++) {
+                Arrays.fill(counts[seat], 0);
+                left[seat] = position.cardsLeft[seat];
+                for (int n = 0; n < left[seat]; n++, k++) {
+                    int j = k + random.nextInt(unseen.length - k);
+                    int rank = unseen[j];
+                    unseen[j] = unseen[k];
+                    unseen[k] = rank;
+                    counts[seat][rank]++;
+                }
+            }
+            int last = position.lastPlay;
+            int lastSeat = position.lastPlayer;
+            int seat = 0;
+            int play = move;
+            for (int turn = 0; turn < MAX_PLAYOUT_TURNS; turn++) {
+                if (turn > 0)
+                    play = playoutMove(counts[seat], last, random);
+                if (play != CardRules.NONE) {
+                    apply(counts[seat], play);
+                    left[seat] -= CardRules.cardsIn(play);
+                    if (left[seat] <= 0)
+                        return seat == 0 ? 1.0 : 0.25 * (1.0 - (double)left[0] / position.cardsLeft[0]);
+                    last = play;
+                    lastSeat = seat;
+                }
+                seat = (seat + 1) % PokerTable.SEATS;
+                if (seat == lastSeat)
+                    last = CardRules.NONE;
+            }
+            return 0.25 * (1.0 - (double)left[0] / position.cardsLeft[0]);
+        }
+    }
+
+    /* The policy of the other seats during a playout: greedy, with a little noise. */
+    private static int playoutMove(int[] counts, int last, ThreadLocalRandom random) {
+        if (last == CardRules.NONE) {
+            if (random.nextInt(4) == 0) {
+                int rank = random.nextInt(CardRules.RANKS);
+                for (int i = 0; i < CardRules.RANKS; i++, rank = (rank + 1) % CardRules.RANKS) {
+                    if (counts[rank] > 0)
+                        return group(rank, counts[rank]);
+                }
+            }
+            return greedyMove(counts, last);
+        }
+        int move = smallestBeating(counts, last);
+        if (move == CardRules.NONE && CardRules.typeOf(last) < CardRules.BOMB && random.nextInt(3) == 0)
+            move = smallestBomb(counts);
+        return move;
+    }
+
+    private static int smallestBomb(int[] counts) {
+        for (int size = 4; size <= 8; size++) {
+            for (int rank = 0; rank <= 12; rank++) {
+                if (counts[rank] >= size)
+                    return CardRules.combination(CardRules.BOMB, rank, size);
+            }
+        }
+        return CardRules.NONE;
+    }
+
+    /*
+     * Lead with all copies of the lowest rank held, or play the smallest
+     * combination that beats last, or pass.
+     */
+    static int greedyMove(int[] counts, int last) {
+        if (last != CardRules.NONE)
+            return smallestBeating(counts, last);
+        for (int rank = 0; rank < CardRules.RANKS; rank++) {
+            if (counts[rank] > 0)
+                return group(rank, counts[rank]);
+        }
+        return CardRules.NONE;
+    }
+
+    /* All copies of one rank as a single play. */
+    private static int group(int rank, int count) {
+        if (count >= 4)
+            return CardRules.combination(CardRules.BOMB, rank, Math.min(count, 8));
+        return CardRules.combination(count, rank, 1);      // SINGLE, PAIR and TRIPLE are 1, 2 and 3.
+    }
+
+    private static int smallestBeating(int[] counts, int last) {
+        int type = CardRules.typeOf(last);
+        int rank = CardRules.rankOf(last);
+        int length = CardRules.lengthOf(last);
+        switch (type) {
+            case CardRules.SINGLE:
+            case CardRules.PAIR:
+            case CardRules.TRIPLE:
+                for (int r = rank + 1; r < CardRules.RANKS; r++) {
+                    if (counts[r] >= type && counts[r] < 4)     // Don't break up bombs.
+                        return CardRules.combination(type, r, 1);
+                }
+                return CardRules.NONE;
+            case CardRules.STRAIGHT:
+            case CardRules.CONSECUTIVE_PAIRS:
+                int copies = type == CardRules.STRAIGHT ? 1 : 2;
+                for (int start = rank + 1; start + length <= 12; start++) {
+                    int r = start;
+                    while (r < start + length && counts[r] >= copies)
+                        r++;
+                    if (r == start + length)
+                        return CardRules.combination(type, start, length);
+                }
+                return CardRules.NONE;
+            case CardRules.BOMB:
+                for (int size = length; size <= 8; size++) {
+                    for (int r = size == length ? rank + 1 : 0; r <= 12; r++) {
+                        if (counts[r] >= size)
+                            return CardRules.combination(CardRules.BOMB, r, size);
+                    }
+                }
+                if (counts[13] == 2 && counts[14] == 2)
+                    return CardRules.combination(CardRules.JOKER_BOMB, 13, 4);
+                return CardRules.NONE;
+            default:
+                return CardRules.NONE;
+        }
+    }
+
+    /* Every legal move for these rank counts, pass included when allowed. */
+    static int legalMoves(int[] counts, int last, int[] out) {
+        int n = 0;
+        if (last != CardRules.NONE)
+            out[n++] = CardRules.NONE;
+        for (int rank = 0; rank < CardRules.RANKS; rank++) {
+            for (int k = 1; k <= counts[rank]; k++)
+                n = addIfLegal(out, n, k <= 3 ? CardRules.combination(k, rank, 1)
+                        : CardRules.combination(CardRules.BOMB, rank, k), last);
+        }
+        for (int copies = 1; copies <= 2; copies++) {
+            int type = copies == 1 ? CardRules.STRAIGHT : CardRules.CONSECUTIVE_PAIRS;
+            int shortest = copies == 1 ? 5 : 3;
+            for (int start = 0; start < 12; start++) {
+                int end = start;
+                while (end < 12 && counts[end] >= copies) {
+                    end++;
+                    if (end - start >= shortest)
+                        n = addIfLegal(out, n, CardRules.combination(type, start, end - start), last);
+                }
+            }
+        }
+        if (counts[13] == 2 && counts[14] == 2)
+            n = addIfLegal(out, n, CardRules.combination(CardRules.JOKER_BOMB, 13, 4), last);
+        return n;
+    }
+
+    private static int addIfLegal(int[] out, int n, int move, int last) {
+        if (n < out.length && (last == CardRules.NONE || CardRules.beats(move, last)))
+            out[n++] = move;
+        return n;
+    }
+
+    private static void apply(int[] counts, int move) {
+        int rank = CardRules.rankOf(move);
+        int length = CardRules.lengthOf(move);
+        switch (CardRules.typeOf(move)) {
+            case CardRules.SINGLE: counts[rank] -= 1; break;
+            case CardRules.PAIR: counts[rank] -= 2; break;
+            case CardRules.TRIPLE: counts[rank] -= 3; break;
+            case CardRules.BOMB: counts[rank] -= length; break;
+            case CardRules.STRAIGHT:
+                for (int i = 0; i < length; i++)
+                    counts[rank + i] -= 1;
+                break;
+            case CardRules.CONSECUTIVE_PAIRS:
+                for (int i = 0; i < length; i++)
+                    counts[rank + i] -= 2;
+                break;
+            case CardRules.JOKER_BOMB:
+                counts[13] -= 2;
+                counts[14] -= 2;
+                break;
+        }
+    }
+
+    /* Add the cards of a hand to per-rank counts. */
+    public static void addRankCounts(Hand hand, int[] counts) {
+        for (int code = hand.nextCode(0); code >= 0; code = hand.nextCode(code + 1))
+            counts[CardRules.rankOfCode(code)] += hand.count(code);
+    }
+
+    /**
+     * What a bot knows when it has to move: its own hand, how many cards every
+     * seat holds, the ranks of the cards it can't see (the other hands and the
+     * kitty together) and the play to beat. Seats are counted from the bot's,
+     * so seat 0 is the bot.
+     */
+    public static class Position {
+
+        private final Hand hand;
+        private final int[] counts = new int[CardRules.RANKS];
+        private final int[] cardsLeft;
+        private final int[] unseen;
+        private final int unseenTotal;
+        private final int lastPlay;
+        private final int lastPlayer;
+
+        public Position(Hand hand, int[] cardsLeft, int[] unseenRanks, int lastPlay, int lastPlayer) {
+            this.hand = hand.copy();
+            this.cardsLeft = cardsLeft.clone();
+            unseen = unseenRanks.clone();
+            this.lastPlay = lastPlay;
+            this.lastPlayer = lastPlayer;
+            addRankCounts(hand, counts);
+            int total = 0;
+            for (int count : unseen)
+                total += count;
+            unseenTotal = total;
+        }
+
+        /* The cards of a move, taken from this hand. */
+        PlayMessage toPlay(int move) {
+            int cards = CardRules.cardsIn(move);
+            int[] codes = new int[cards];
+            int n = 0;
+            int rank = CardRules.rankOf(move);
+            int length = CardRules.lengthOf(move);
+            switch (CardRules.typeOf(move == CardRules.NONE ? 0 : move)) {
+                case CardRules.SINGLE:
+                case CardRules.PAIR:
+                case CardRules.TRIPLE:
+                case CardRules.BOMB:
+                    n = take(rank, cards, codes, n);
+                    break;
+                case CardRules.STRAIGHT:
+                case CardRules.CONSECUTIVE_PAIRS:
+                    int copies = cards / length;
+                    for (int i = 0; i < length; i++)
+                        n = take(rank + i, copies, codes, n);
+                    break;
+                case CardRules.JOKER_BOMB:
+                    n = take(13, 2, codes, n);
+                    n = take(14, 2, codes, n);
+                    break;
+            }
+            return new PlayMessage(codes);
+        }
+
+        private int take(int rank, int copies, int[] codes, int n) {
+            int first;
+            int last;
+            if (rank >= 13)
+                first = last = rank + 39;           // Jokers are codes 52 and 53.
+            else if (rank == 12) {
+                first = 0;                          // The 2s are codes 0 to 3.
+                last = 3;
+            }
+            else {
+                first = (rank + 1) * 4;
+                last = first + 3;
+            }
+            for (int code = first; code <= last && copies > 0; code++) {
+                for (int c = hand.count(code); c > 0 && copies > 0; c--, copies--)
+                    codes[n++] = code;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Heap and garbage of the cards a server holds. First the heap per table of
+ * four dealt hands kept as fresh card copies (what deserialization made
+ * before cards were interned), as interned cards and as Hand bit sets; then
+ * the bytes allocated and the collections run while card codes are turned
+ * into fresh or interned cards, hand after hand.
+ * Usage: CardBenchmark [tables] [hands decoded]
+ */
+public class CardBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int tableCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int handCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        Random random = new Random(1);
+        int[][] deals = new int[tableCount][];
+        for (int t = 0; t < tableCount; t++)
+            deals[t] = deal(random);
+        String[] names = {"fresh cards", "interned cards", "Hand bits"};
+        for (int kind = 0; kind < names.length; kind++) {
+            long before = usedHeap();
+            Object[] tables = new Object[tableCount];
+            for (int t = 0; t < tableCount; t++)
+                tables[t] = holdHands(deals[t], kind);
+            long after = usedHeap();
+            Reference.reachabilityFence(tables);
+            System.out.println(names[kind] + ": " + (after - before) / tableCount + " bytes of heap per table.");
+        }
+        ThreadMXBean threads = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadID = Thread.currentThread().getId();
+        PokerCard[] hand = new PokerCard[PokerTable.HAND_SIZE];
+        for (int kind = 0; kind < 2; kind++) {
+            decodeHands(deals, hand, kind == 1, handCount / 10);     // Warm up.
+            long collections = collectionCount();
+            long allocated = threads.getThreadAllocatedBytes(threadID);
+            long start = System.nanoTime();
+            decodeHands(deals, hand, kind == 1, handCount);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            allocated = threads.getThreadAllocatedBytes(threadID) - allocated;
+            System.out.println(names[kind] + ": " + allocated / handCount + " bytes allocated per hand decoded, "
+                    + (long)(allocated / seconds / (1024 * 1024)) + " MB/sec, "
+                    + (collectionCount() - collections) + " collections for " + handCount + " hands.");
+        }
+    }
+
+    /* Card codes of four hands from two shuffled decks. */
+    private static int[] deal(Random random) {
+        int[] codes = new int[2 * PokerCard.CARD_CODES];
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = i % PokerCard.CARD_CODES;
+        for (int i = codes.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = codes[i];
+            codes[i] = codes[j];
+            codes[j] = swap;
+        }
+        return Arrays.copyOf(codes, PokerTable.SEATS * PokerTable.HAND_SIZE);
+    }
+
+    /* A table's hands as lists of fresh (kind 0) or interned (1) cards, or as Hands (2). */
+    private static Object holdHands(int[] deal, int kind) {
+        Object[] hands = new Object[PokerTable.SEATS];
+        for (int seat = 0; seat < hands.length; seat++) {
+            if (kind == 2) {
+                Hand hand = new Hand();
+                for (int i = 0; i < PokerTable.HAND_SIZE; i++)
+                    hand.add(deal[seat * PokerTable.HAND_SIZE + i]);
+                hands[seat] = hand;
+                continue;
+            }
+            ArrayList<PokerCard> cards = new ArrayList<PokerCard>(PokerTable.HAND_SIZE);
+            for (int i = 0; i < PokerTable.HAND_SIZE; i++) {
+                int code = deal[seat * PokerTable.HAND_SIZE + i];
+                cards.add(kind == 0 ? new PokerCard(PokerCard.valueOfCode(code), PokerCard.suitOfCode(code))
+                        : PokerCard.fromCode(code));
+            }
+            hands[seat] = cards;
+        }
+        return hands;
+    }
+
+    private static void decodeHands(int[][] deals, PokerCard[] hand, boolean interned, int count) {
+        for (int n = 0; n < count; n++) {
+            int[] deal = deals[n % deals.length];
+            int offset = n % PokerTable.SEATS * PokerTable.HAND_SIZE;
+            for (int i = 0; i < hand.length; i++) {
+                int code = deal[offset + i];
+                hand[i] = interned ? PokerCard.fromCode(code)
+                        : new PokerCard(PokerCard.valueOfCode(code), PokerCard.suitOfCode(code));
+            }
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            count += collector.getCollectionCount();
+        return count;
+    }
+}
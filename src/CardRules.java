@@ -0,0 +1,234 @@
+import java.util.Arrays;
+
+/**
+ * Classifies plays and decides whether one beats another, for the two deck
+ * game. Ranks run 3, 4, ..., King, Ace, 2, small joker, big joker.
+ *
+ * A play is reduced to a packed long of 4 bit counts, one per rank, plus a mask
+ * of the ranks present, by table lookups on the card codes. Each combination is
+ * then recognised with a few bit operations on those two words, so classifying
+ * neither sorts nor allocates. The result is a packed int, see typeOf(),
+ * rankOf() and lengthOf().
+ */
+public class CardRules {
+
+    public static final int INVALID = -1;
+    public static final int NONE = 0;   // No play to beat: the player leads.
+
+    public static final int SINGLE = 1;
+    public static final int PAIR = 2;
+    public static final int TRIPLE = 3;
+    public static final int STRAIGHT = 4;             // Five or more singles in sequence, 3 to Ace.
+    public static final int CONSECUTIVE_PAIRS = 5;    // Three or more pairs in sequence, 3 to Ace.
+    public static final int BOMB = 6;                 // Four or more cards of one rank.
+    public static final int JOKER_BOMB = 7;           // All four jokers.
+
+    public static final int RANKS = 15;
+    private static final int TWO_RANK = 12;
+    private static final int SMALL_JOKER_RANK = 13;
+    private static final int BIG_JOKER_RANK = 14;
+    private static final int SEQUENCE_RANKS = (1 << TWO_RANK) - 1;     // 3 to Ace can form sequences.
+    private static final int JOKER_RANKS = (1 << SMALL_JOKER_RANK) | (1 << BIG_JOKER_RANK);
+    private static final long ALL_JOKERS = (2L << (SMALL_JOKER_RANK << 2)) | (2L << (BIG_JOKER_RANK << 2));
+
+    /* Rank of each card code. */
+    private static final byte[] RANK_OF_CODE = new byte[PokerCard.CARD_CODES];
+
+    /* ONES[n] has a count of 1 in each of the n lowest ranks. */
+    private static final long[] ONES = new long[RANKS + 1];
+
+    /* Card values in rank order, for classifyBySorting(); the jokers come after them. */
+    private static final int[] RANK_VALUES = {3, 4, 5, 6, 7, 8, 9, 10, PokerCard.JACK, PokerCard.QUEEN, PokerCard.KING,
+            PokerCard.ACE, 2};
+
+    static {
+        for (int code = 0; code < PokerCard.CARD_CODES; code++) {
+            int value = PokerCard.valueOfCode(code);
+            int rank;
+            if (PokerCard.suitOfCode(code) == PokerCard.JOKER)
+                rank = value == 1 ? SMALL_JOKER_RANK : BIG_JOKER_RANK;
+            else if (value == 2)
+                rank = TWO_RANK;
+            else
+                rank = value - 3;
+            RANK_OF_CODE[code] = (byte)rank;
+        }
+        for (int n = 1; n <= RANKS; n++)
+            ONES[n] = (ONES[n - 1] << 4) | 1;
+    }
+
+    private CardRules() { }
+
+    public static int rankOfCode(int code) {
+        return RANK_OF_CODE[code];
+    }
+
+    /**
+     * Classify a play. Returns INVALID if the cards don't form a combination,
+     * and NONE for a pass.
+     */
+    public static int classify(PlayMessage play) {
+        int cards = play.getCardCount();
+        if (cards == 0)
+            return NONE;
+        if (cards > RANKS * 8)
+            return INVALID;
+        long counts = 0;
+        int mask = 0;
+        for (int i = 0; i < cards; i++) {
+            int rank = RANK_OF_CODE[play.getCode(i)];
+            counts += 1L << (rank << 2);
+            mask |= 1 << rank;
+        }
+        return classify(counts, mask, cards);
+    }
+
+    /**
+     * Classify a play given as its packed rank counts (4 bits per rank, lowest
+     * rank first), the mask of ranks present and the number of cards.
+     */
+    public static int classify(long counts, int mask, int cards) {
+        int low = Integer.numberOfTrailingZeros(mask);
+        int distinct = Integer.bitCount(mask);
+        if (distinct == 1) {
+            switch (cards) {
+                case 1: return pack(SINGLE, low, 1);
+                case 2: return pack(PAIR, low, 1);
+                case 3: return pack(TRIPLE, low, 1);
+                default: return cards <= 8 ? pack(BOMB, low, cards) : INVALID;    // Two decks hold 8 of a rank.
+            }
+        }
+        if (mask == JOKER_RANKS)
+            return counts == ALL_JOKERS ? pack(JOKER_BOMB, SMALL_JOKER_RANK, 4) : INVALID;
+        if ((mask & ~SEQUENCE_RANKS) != 0)
+            return INVALID;
+        int run = mask >>> low;
+        if ((run & (run + 1)) != 0)     // Not one unbroken sequence of ranks.
+            return INVALID;
+        long ones = ONES[distinct] << (low << 2);
+        if (counts == ones && distinct >= 5)
+            return pack(STRAIGHT, low, distinct);
+        if (counts == ones << 1 && distinct >= 3)
+            return pack(CONSECUTIVE_PAIRS, low, distinct);
+        return INVALID;
+    }
+
+    /**
+     * True if play may follow previous: anything may lead, bombs beat everything
+     * but bigger bombs, and otherwise the play must be the same combination and
+     * length with a higher rank.
+     */
+    public static boolean beats(int play, int previous) {
+        if (play == INVALID || play == NONE)
+            return false;
+        if (previous == NONE)
+            return true;
+        int type = typeOf(play);
+        int previousType = typeOf(previous);
+        if (type == JOKER_BOMB)
+            return true;
+        if (previousType == JOKER_BOMB)
+            return false;
+        if (type == BOMB) {
+            if (previousType != BOMB)
+                return true;
+            if (lengthOf(play) != lengthOf(previous))
+                return lengthOf(play) > lengthOf(previous);
+            return rankOf(play) > rankOf(previous);
+        }
+        return type == previousType && lengthOf(play) == lengthOf(previous) && rankOf(play) > rankOf(previous);
+    }
+
+    public static int typeOf(int play) {
+        return play >>> 12;
+    }
+
+    /* Rank of the cards, or of the lowest cards in a sequence. */
+    public static int rankOf(int play) {
+        return play & 0xF;
+    }
+
+    /* Number of ranks in a sequence, number of cards in a bomb, 1 otherwise. */
+    public static int lengthOf(int play) {
+        return (play >>> 4) & 0xFF;
+    }
+
+    /* Build a classified play from its parts, as classify() would return it. */
+    public static int combination(int type, int rank, int length) {
+        return pack(type, rank, length);
+    }
+
+    /* Number of cards in a classified play. */
+    public static int cardsIn(int play) {
+        switch (play == INVALID || play == NONE ? NONE : typeOf(play)) {
+            case SINGLE: return 1;
+            case PAIR: return 2;
+            case TRIPLE: return 3;
+            case STRAIGHT: return lengthOf(play);
+            case CONSECUTIVE_PAIRS: return 2 * lengthOf(play);
+            case BOMB: return lengthOf(play);
+            case JOKER_BOMB: return 4;
+            default: return 0;
+        }
+    }
+
+    private static int pack(int type, int rank, int length) {
+        return (type << 12) | (length << 4) | rank;
+    }
+
+    public static String describe(int play) {
+        switch (play == INVALID || play == NONE ? play : typeOf(play)) {
+            case INVALID: return "invalid";
+            case NONE: return "nothing";
+            case SINGLE: return "single";
+            case PAIR: return "pair";
+            case TRIPLE: return "triple";
+            case STRAIGHT: return "straight of " + lengthOf(play);
+            case CONSECUTIVE_PAIRS: return lengthOf(play) + " consecutive pairs";
+            case BOMB: return "bomb of " + lengthOf(play);
+            default: return "joker bomb";
+        }
+    }
+
+    /*
+     * The reference for RulesBenchmark's check: the rules as written, on sorted
+     * ranks, with none of the tables or bit tricks classify() uses.
+     */
+    static int classifyBySorting(int[] codes) {
+        int cards = codes.length;
+        if (cards == 0)
+            return NONE;
+        int[] ranks = new int[cards];
+        for (int i = 0; i < cards; i++) {
+            PokerCard card = PokerCard.fromCode(codes[i]);
+            if (card.getSuit() == PokerCard.JOKER)
+                ranks[i] = SMALL_JOKER_RANK + card.getValue() - 1;
+            else {
+                ranks[i] = 0;
+                while (RANK_VALUES[ranks[i]] != card.getValue())
+                    ranks[i]++;
+            }
+        }
+        Arrays.sort(ranks);
+        int low = ranks[0];
+        if (low == ranks[cards - 1]) {
+            if (cards <= 3)
+                return pack(cards, low, 1);     // SINGLE, PAIR or TRIPLE.
+            return cards <= 8 ? pack(BOMB, low, cards) : INVALID;
+        }
+        if (cards == 4 && ranks[0] == SMALL_JOKER_RANK && ranks[1] == SMALL_JOKER_RANK
+                && ranks[2] == BIG_JOKER_RANK && ranks[3] == BIG_JOKER_RANK)
+            return pack(JOKER_BOMB, SMALL_JOKER_RANK, 4);
+        if (ranks[cards - 1] >= TWO_RANK)
+            return INVALID;
+        boolean straight = cards >= 5;
+        for (int i = 0; i < cards; i++)
+            straight &= ranks[i] == low + i;
+        if (straight)
+            return pack(STRAIGHT, low, cards);
+        boolean pairs = cards >= 6 && cards % 2 == 0;
+        for (int i = 0; i < cards; i++)
+            pairs &= ranks[i] == low + i / 2;
+        return pairs ? pack(CONSECUTIVE_PAIRS, low, cards / 2) : INVALID;
+    }
+}
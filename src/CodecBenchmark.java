@@ -0,0 +1,72 @@
+import networkcore.MessageCodec;
+import networkcore.SerializationCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Compares the PokerCodec with Java serialization on the messages of a turn:
+ * the bytes of each frame body and the time to encode and decode it, then
+ * the totals for one turn, which sends the play, a HandDelta to each of the
+ * four seats and "your turn". A full Hand is only resent every few turns.
+ * Usage: CodecBenchmark [iterations]
+ */
+public class CodecBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Hand hand = new Hand();
+        for (int i = 0; i < PokerTable.HAND_SIZE; i++)
+            hand.add(i * 2 % PokerCard.CARD_CODES);
+        PlayMessage play = new PlayMessage(4, 5);
+        Object[] messages = {play, new HandDelta(1, play, 23, 2), "your turn", hand};
+        int[] perTurn = {1, PokerTable.SEATS, 1, 0};
+        MessageCodec[] codecs = {PokerCodec.create(), new SerializationCodec()};
+        String[] names = {"binary", "serialization"};
+        for (int c = 0; c < codecs.length; c++) {
+            long turnBytes = 0;
+            long turnNanos = 0;
+            for (int m = 0; m < messages.length; m++) {
+                byte[] body = encode(codecs[c], messages[m]);
+                timeRoundTrips(codecs[c], messages[m], iterations / 10);    // Warm up.
+                long nanos = timeRoundTrips(codecs[c], messages[m], iterations);
+                System.out.println(names[c] + ": " + messages[m].getClass().getSimpleName() + " " + body.length
+                        + " bytes, " + nanos + " ns to encode and decode.");
+                turnBytes += perTurn[m] * body.length;
+                turnNanos += perTurn[m] * nanos;
+            }
+            System.out.println(names[c] + ": a turn is " + turnBytes + " bytes and " + turnNanos + " ns of codec time.");
+        }
+    }
+
+    private static byte[] encode(MessageCodec codec, Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        codec.encode(message, output);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /* Average time to encode a message and decode it again, in nanoseconds. */
+    private static long timeRoundTrips(MessageCodec codec, Object message, int iterations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream output = new DataOutputStream(bytes);
+        int decoded = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            bytes.reset();
+            codec.encode(message, output);
+            output.flush();
+            byte[] body = bytes.toByteArray();
+            if (codec.decode(new DataInputStream(new ByteArrayInputStream(body))) != null)
+                decoded++;
+        }
+        long nanos = System.nanoTime() - start;
+        if (decoded != iterations)
+            throw new IOException("Only " + decoded + " of " + iterations + " messages decoded.");
+        return nanos / iterations;
+    }
+}
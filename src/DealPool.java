@@ -0,0 +1,98 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded stock of deals shuffled ahead of time by background threads, so a
+ * table can start its game without waiting for a shuffle. Taking a deal copies
+ * it into the table's own Deal and recycles the pooled one; when the pool has
+ * run dry the table deals inline instead and the miss is counted.
+ */
+public class DealPool {
+
+    private final DealingEngine engine;
+    private final ArrayBlockingQueue<DealingEngine.Deal> ready;
+    private final ConcurrentLinkedQueue<DealingEngine.Deal> recycled = new ConcurrentLinkedQueue<DealingEngine.Deal>();
+    private final Thread[] refillers;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile boolean closed;
+
+    public DealPool(DealingEngine engine, int capacity, int refillThreads) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The pool capacity must be at least 1.");
+        if (refillThreads < 1)
+            throw new IllegalArgumentException("At least one refill thread is required.");
+        this.engine = engine;
+        ready = new ArrayBlockingQueue<DealingEngine.Deal>(capacity);
+        refillers = new Thread[refillThreads];
+        for (int i = 0; i < refillThreads; i++) {
+            refillers[i] = new RefillThread(i);
+            refillers[i].start();
+        }
+    }
+
+    /**
+     * Fill target with a fresh deal, from the pool if one is ready.
+     */
+    public void take(DealingEngine.Deal target) {
+        DealingEngine.Deal deal = ready.poll();
+        if (deal == null) {
+            misses.increment();
+            engine.deal(target);
+            return;
+        }
+        hits.increment();
+        target.copyFrom(deal);
+        recycled.offer(deal);
+    }
+
+    public int getDepth() {
+        return ready.size();
+    }
+
+    public int getCapacity() {
+        return ready.size() + ready.remainingCapacity();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /* Stop the refill threads. Deals already in the pool can still be taken. */
+    public void close() {
+        closed = true;
+        for (Thread refiller : refillers)
+            refiller.interrupt();
+    }
+
+    public String toString() {
+        return "depth " + getDepth() + "/" + getCapacity() + ", hits " + getHits() + ", misses " + getMisses();
+    }
+
+    private class RefillThread extends Thread {
+
+        RefillThread(int index) {
+            super("deal-refill-" + index);
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while ( !closed ) {
+                    DealingEngine.Deal deal = recycled.poll();
+                    if (deal == null)
+                        deal = engine.newDeal();
+                    engine.deal(deal);
+                    ready.put(deal);        // Blocks while the pool is full.
+                }
+            }
+            catch (InterruptedException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Rough throughput check of the DealingEngine: deals as fast as possible on
+ * every core for a few seconds and prints deals/sec per core.
+ * Usage: DealingBenchmark [random source] [milliseconds]
+ */
+public class DealingBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        final DealingEngine.RandomSource source = args.length > 0 ? DealingEngine.RandomSource.valueOf(args[0])
+                : DealingEngine.RandomSource.SPLITTABLE;
+        final long millis = args.length > 1 ? Long.parseLong(args[1]) : 3000;
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final DealingEngine engine = new DealingEngine(2, PokerTable.SEATS, PokerTable.HAND_SIZE, source);
+        Thread[] dealers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            dealers[t] = new Thread() {
+                public void run() {
+                    DealingEngine.Deal deal = engine.newDeal();
+                    long end = System.currentTimeMillis() + millis;
+                    while (System.currentTimeMillis() < end) {
+                        for (int i = 0; i < 1000; i++)
+                            engine.deal(deal);
+                    }
+                }
+            };
+            dealers[t].start();
+        }
+        for (Thread dealer : dealers)
+            dealer.join();
+        double perSecond = engine.getDealCount() * 1000.0 / millis;
+        System.out.println(source + ": " + threads + " threads, " + (long)perSecond + " deals/sec, "
+                + (long)(perSecond / threads) + " deals/sec per core.");
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shuffles and deals multi-deck games without locks or per-deal allocation.
+ * Every deal is driven by one 64 bit seed that is kept in the Deal, so any deal
+ * can be reproduced with deal(seed, target). The RandomSource only decides where
+ * those seeds come from; the shuffle itself is an inline SplitMix64 generator
+ * over a card code array owned by the dealing thread.
+ */
+public class DealingEngine {
+
+    public enum RandomSource {
+        /** Seeds from ThreadLocalRandom. */
+        THREAD_LOCAL,
+        /** Seeds from a SplittableRandom per dealing thread, split from one root. */
+        SPLITTABLE,
+        /** Seeds derived from a fixed seed and a deal counter, for reproducible runs. */
+        SEEDED
+    }
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final int seats;
+    private final int handSize;
+    private final byte[] orderedCards;      // Template copied into the per-thread array before each shuffle.
+    private final RandomSource source;
+    private final long baseSeed;
+    private final AtomicLong seedSequence = new AtomicLong();   // Only used in SEEDED mode.
+    private final LongAdder dealCount = new LongAdder();
+    private final SplittableRandom rootRandom;
+    private final ThreadLocal<SplittableRandom> threadRandom;
+    private final ThreadLocal<byte[]> threadCards;
+
+    public DealingEngine(int decks, int seats, int handSize, RandomSource source) {
+        this(decks, seats, handSize, source, System.nanoTime());
+    }
+
+    /**
+     * An engine in SEEDED mode: the n-th deal always gets the same seed.
+     */
+    public DealingEngine(int decks, int seats, int handSize, long seed) {
+        this(decks, seats, handSize, RandomSource.SEEDED, seed);
+    }
+
+    private DealingEngine(int decks, int seats, int handSize, RandomSource source, long seed) {
+        if (decks < 1 || decks > 2)
+            throw new IllegalArgumentException("A Hand holds at most two decks.");
+        if (seats < 1 || handSize < 0 || seats * handSize > decks * PokerCard.CARD_CODES)
+            throw new IllegalArgumentException("Not enough cards for " + seats + " hands of " + handSize + ".");
+        if (source == null)
+            throw new IllegalArgumentException("Random source can't be null.");
+        this.seats = seats;
+        this.handSize = handSize;
+        this.source = source;
+        baseSeed = seed;
+        orderedCards = new byte[decks * PokerCard.CARD_CODES];
+        for (int i = 0; i < orderedCards.length; i++)
+            orderedCards[i] = (byte)(i % PokerCard.CARD_CODES);
+        rootRandom = new SplittableRandom(seed);
+        threadRandom = new ThreadLocal<SplittableRandom>() {
+            protected SplittableRandom initialValue() {
+                synchronized (rootRandom) {     // Once per dealing thread.
+                    return rootRandom.split();
+                }
+            }
+        };
+        threadCards = new ThreadLocal<byte[]>() {
+            protected byte[] initialValue() {
+                return new byte[orderedCards.length];
+            }
+        };
+    }
+
+    public RandomSource getRandomSource() {
+        return source;
+    }
+
+    public int getSeats() {
+        return seats;
+    }
+
+    public int getHandSize() {
+        return handSize;
+    }
+
+    /* Cards left over after the hands are dealt. */
+    public int getKittySize() {
+        return orderedCards.length - seats * handSize;
+    }
+
+    public long getDealCount() {
+        return dealCount.sum();
+    }
+
+    /* A Deal sized for this engine, to be reused for every deal of a table. */
+    public Deal newDeal() {
+        return new Deal(seats);
+    }
+
+    /**
+     * Shuffle and deal into target with a fresh seed.
+     */
+    public void deal(Deal target) {
+        deal(nextSeed(), target);
+    }
+
+    /**
+     * Shuffle and deal into target exactly as the deal that was given this seed.
+     */
+    public void deal(long seed, Deal target) {
+        if (target.hands.length != seats)
+            throw new IllegalArgumentException("The deal has " + target.hands.length + " hands, not " + seats + ".");
+        byte[] cards = threadCards.get();
+        System.arraycopy(orderedCards, 0, cards, 0, cards.length);
+        long state = seed;
+        for (int i = cards.length - 1; i > 0; i--) {
+            state += GOLDEN_GAMMA;
+            int j = (int)(((mix(state) >>> 32) * (i + 1)) >>> 32);
+            byte card = cards[i];
+            cards[i] = cards[j];
+            cards[j] = card;
+        }
+        int k = 0;
+        for (int seat = 0; seat < seats; seat++) {
+            Hand hand = target.hands[seat];
+            hand.clear();
+            for (int n = 0; n < handSize; n++)
+                hand.add(cards[k++]);
+        }
+        target.kitty.clear();
+        while (k < cards.length)
+            target.kitty.add(cards[k++]);
+        target.seed = seed;
+        dealCount.increment();
+    }
+
+    private long nextSeed() {
+        switch (source) {
+            case SPLITTABLE:
+                return threadRandom.get().nextLong();
+            case SEEDED:
+                return mix(baseSeed + seedSequence.getAndIncrement() * GOLDEN_GAMMA);
+            default:
+                return ThreadLocalRandom.current().nextLong();
+        }
+    }
+
+    /* SplitMix64 finalizer. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The hands and kitty of one deal, and the seed that produced them. A table
+     * keeps one Deal and has the engine refill it for every game.
+     */
+    public static class Deal {
+
+        private final Hand[] hands;
+        private final Hand kitty = new Hand();
+        private long seed;
+
+        public Deal(int seats) {
+            hands = new Hand[seats];
+            for (int i = 0; i < seats; i++)
+                hands[i] = new Hand();
+        }
+
+        public Hand getHand(int seat) {
+            return hands[seat];
+        }
+
+        public Hand getKitty() {
+            return kitty;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public void copyFrom(Deal other) {
+            if (other.hands.length != hands.length)
+                throw new IllegalArgumentException("Deals have different numbers of hands.");
+            for (int i = 0; i < hands.length; i++)
+                hands[i].copyFrom(other.hands[i]);
+            kitty.copyFrom(other.kitty);
+            seed = other.seed;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of game events, so the tables that were in play can be
+ * rebuilt after the server dies: each table's players, deal seed and rejoin
+ * keys, every play, seats taken over by a bot or by a rejoining player, and game over.
+ *
+ * The journal is a directory of memory-mapped segment files. A writer takes a
+ * lock only to reserve space, then copies its record into the mapping; a
+ * record is a 4 byte length, a CRC32 and the body, and the length is written
+ * last, so a record that was cut short is never read back. Appends never wait
+ * for the disk: a flusher thread forces everything written since the last
+ * flush every few milliseconds, committing whole groups of records at once.
+ * Segments are deleted, or moved to an archive directory for GameReplay, once
+ * no open table started in them.
+ */
+public class GameJournal {
+
+    static final int TABLE_OPEN = 1;
+    static final int PLAY = 2;
+    static final int SEAT_TO_BOT = 3;
+    static final int SEAT_REJOINED = 4;
+    static final int GAME_OVER = 5;
+
+    private static final int HEADER_LENGTH = 8;         // Body length, then CRC32 of the body.
+    private static final int MAX_RECORD_LENGTH = 256;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    private static final long RETENTION_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final File directory;
+    private final File archive;                 // Null to delete old segments.
+    private final int segmentSize;
+    private final long flushIntervalNanos;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private Segment current;                // Guarded by appendLock.
+    private final ConcurrentLinkedQueue<Segment> sealed = new ConcurrentLinkedQueue<Segment>();
+    private final ConcurrentHashMap<Integer, Long> openTables = new ConcurrentHashMap<Integer, Long>();  // Table ID to segment.
+    private final Thread flusher;
+    private volatile boolean closed;
+    private final long firstSegment;            // Segments before it are only deleted after recovered().
+    private volatile boolean recovered;
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    private static final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(MAX_RECORD_LENGTH);
+        }
+    };
+    private static final ThreadLocal<CRC32> checksum = new ThreadLocal<CRC32>() {
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
+    public GameJournal(File directory, int segmentSize, long flushInterval, TimeUnit unit) throws IOException {
+        this(directory, null, segmentSize, flushInterval, unit);
+    }
+
+    /**
+     * Start a new segment after any that are already in the directory. Read
+     * those with recover() first; they are archived or deleted once nothing
+     * needs them.
+     * @param archive where to move segments nothing needs, or null to delete them
+     */
+    public GameJournal(File directory, File archive, int segmentSize, long flushInterval, TimeUnit unit)
+            throws IOException {
+        if (segmentSize < 4 * MAX_RECORD_LENGTH)
+            throw new IllegalArgumentException("Segments must hold at least " + 4 * MAX_RECORD_LENGTH + " bytes.");
+        if (flushInterval <= 0)
+            throw new IllegalArgumentException("The flush interval must be positive.");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create the journal directory " + directory + ".");
+        if (archive != null && !archive.isDirectory() && !archive.mkdirs())
+            throw new IOException("Can't create the journal archive " + archive + ".");
+        this.directory = directory;
+        this.archive = archive;
+        this.segmentSize = segmentSize;
+        flushIntervalNanos = unit.toNanos(flushInterval);
+        long next = 0;
+        for (File segment : segmentFiles(directory, archive))
+            next = segmentIndex(segment) + 1;
+        current = new Segment(next);
+        firstSegment = current.index;
+        flusher = new Thread(new Flusher(), "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /* Events, appended from any thread. */
+
+    /* The rejoin keys go after the seed, so readers that only want the deal can stop there. */
+    public void tableOpened(int tableID, int bucket, int[] seats, long seed, long[] rejoinKeys) {
+        ByteBuffer body = body(TABLE_OPEN, tableID);
+        body.putInt(bucket);
+        body.put((byte)seats.length);
+        for (int playerID : seats)
+            body.putInt(playerID);
+        body.putLong(seed);
+        for (long key : rejoinKeys)
+            body.putLong(key);
+        openTables.put(tableID, append(body));
+    }
+
+    /**
+     * A table recover() returned is in play again, with its records where they
+     * are: keep the segment it was opened in.
+     */
+    public void tableRestored(OpenTable table) {
+        openTables.put(table.tableID, table.segment);
+    }
+
+    /**
+     * A play (or pass) accepted from a seat; turn counts the plays before it,
+     * turnMillis is how long the seat took.
+     */
+    public void played(int tableID, int turn, int seat, PlayMessage play, int turnMillis) {
+        ByteBuffer body = body(PLAY, tableID);
+        body.putInt(turn);
+        body.put((byte)seat);
+        body.putInt(turnMillis);
+        body.put((byte)play.getCardCount());
+        for (int i = 0; i < play.getCardCount(); i++)
+            body.put((byte)play.getCode(i));
+        append(body);
+    }
+
+    public void seatToBot(int tableID, int seat) {
+        ByteBuffer body = body(SEAT_TO_BOT, tableID);
+        body.put((byte)seat);
+        append(body);
+    }
+
+    public void seatRejoined(int tableID, int seat, int playerID) {
+        ByteBuffer body = body(SEAT_REJOINED, tableID);
+        body.put((byte)seat);
+        body.putInt(playerID);
+        append(body);
+    }
+
+    public void gameOver(int tableID) {
+        append(body(GAME_OVER, tableID));
+        openTables.remove(tableID);
+    }
+
+    public long getAppends() {
+        return appends.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * Force everything appended so far to disk now.
+     */
+    public void flush() {
+        appendLock.lock();
+        try {
+            current.force();
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Say that the tables read by recover() that are in play again have been
+     * passed to tableRestored(), so the segments nothing else needs can go.
+     */
+    public void recovered() {
+        flush();
+        recovered = true;
+    }
+
+    /**
+     * Flush and stop the flusher. Later appends are lost.
+     */
+    public void close() {
+        closed = true;
+        flusher.interrupt();
+        flush();
+    }
+
+    private static ByteBuffer body(int type, int tableID) {
+        ByteBuffer body = scratch.get();
+        body.clear();
+        body.put((byte)type);
+        body.putInt(tableID);
+        return body;
+    }
+
+    /* Copy a record into the current segment; returns the segment's index. */
+    private long append(ByteBuffer body) {
+        int length = body.position();
+        CRC32 crc = checksum.get();
+        crc.reset();
+        crc.update(body.array(), 0, length);
+        int size = HEADER_LENGTH + length;
+        Segment segment;
+        int offset;
+        appendLock.lock();
+        try {
+            if (closed)
+                return current.index;
+            if (current.reserved + size + 4 > segmentSize)
+                roll();
+            segment = current;
+            offset = segment.reserved;
+            segment.reserved += size;
+            segment.writers.incrementAndGet();
+        }
+        finally {
+            appendLock.unlock();
+        }
+        MappedByteBuffer map = segment.map;
+        byte[] bytes = body.array();
+        for (int i = 0; i < length; i++)
+            map.put(offset + HEADER_LENGTH + i, bytes[i]);
+        map.putInt(offset + 4, (int)crc.getValue());
+        map.putInt(offset, length);        // Last: the record is complete.
+        segment.completed.incrementAndGet();
+        segment.writers.decrementAndGet();
+        appends.incrementAndGet();
+        return segment.index;
+    }
+
+    /* Called holding appendLock. */
+    private void roll() {
+        current.map.putInt(current.reserved, END_OF_SEGMENT);
+        sealed.add(current);
+        try {
+            current = new Segment(current.index + 1);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Can't create the next journal segment: " + e);
+        }
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, PREFIX + String.format("%010d", index) + SUFFIX);
+    }
+
+    /**
+     * The segment files in these directories, in the order they were written.
+     * Null directories are skipped.
+     */
+    static List<File> segmentFiles(File... directories) {
+        List<File> segments = new ArrayList<File>();
+        for (File directory : directories) {
+            String[] names = directory == null ? null : directory.list();
+            if (names == null)
+                continue;
+            for (String name : names) {
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX) && segmentIndex(name) >= 0)
+                    segments.add(new File(directory, name));
+            }
+        }
+        Collections.sort(segments, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(segmentIndex(a), segmentIndex(b));
+            }
+        });
+        return segments;
+    }
+
+    static long segmentIndex(File segment) {
+        return segmentIndex(segment.getName());
+    }
+
+    private static long segmentIndex(String name) {
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /* Archive or delete the segments before the oldest one an open table started in. */
+    private void deleteUnneededSegments() {
+        long keep = current.index;
+        if (!recovered)
+            keep = Math.min(keep, firstSegment);
+        for (Long index : openTables.values())
+            keep = Math.min(keep, index);
+        for (File segment : segmentFiles(directory)) {
+            long index = segmentIndex(segment);
+            if (index >= keep)
+                break;
+            boolean done = archive == null ? segment.delete() : segment.renameTo(new File(archive, segment.getName()));
+            if (!done)
+                System.out.println("Can't " + (archive == null ? "delete" : "archive") + " journal segment " + index + ".");
+        }
+    }
+
+    private class Segment {
+
+        final long index;
+        final RandomAccessFile file;
+        final MappedByteBuffer map;
+        int reserved;                                           // Guarded by appendLock.
+        final AtomicInteger writers = new AtomicInteger();      // Copying a record in right now.
+        final AtomicLong completed = new AtomicLong();
+        long forced;                                            // Value of completed at the last force.
+
+        Segment(long index) throws IOException {
+            this.index = index;
+            file = new RandomAccessFile(segmentFile(index), "rw");
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+
+        void force() {
+            long done = completed.get();
+            if (done != forced) {
+                map.force();
+                forced = done;
+                flushes.incrementAndGet();
+            }
+        }
+
+        void close() {
+            try {
+                file.close();
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+
+    /* Group commit: force whatever was appended since the last pass. */
+    private class Flusher implements Runnable {
+        public void run() {
+            long nextRetentionCheck = System.nanoTime() + RETENTION_CHECK_NANOS;
+            while (!closed) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(flushIntervalNanos);
+                }
+                catch (InterruptedException e) {
+                    if (closed)
+                        return;
+                }
+                try {
+                    Segment done;
+                    while ((done = sealed.peek()) != null && done.writers.get() == 0) {
+                        done.force();
+                        done.close();
+                        sealed.poll();
+                    }
+                    appendLock.lock();
+                    Segment segment;
+                    try {
+                        segment = current;
+                    }
+                    finally {
+                        appendLock.unlock();
+                    }
+                    segment.force();
+                    if (System.nanoTime() > nextRetentionCheck) {
+                        deleteUnneededSegments();
+                        nextRetentionCheck = System.nanoTime() + RETENTION_CHECK_NANOS;
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Journal flush failed.");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * A table that was still in play when the journal ends, as its records
+     * describe it.
+     */
+    public static class OpenTable {
+
+        public final int tableID;
+        public final long segment;      // Where the table was opened.
+        public final int bucket;
+        public final int[] seats;
+        public final long seed;
+        public final long[] rejoinKeys;     // By seat.
+        public final List<PlayMessage> plays = new ArrayList<PlayMessage>();
+        public final List<Integer> playSeats = new ArrayList<Integer>();
+        public final boolean[] botSeats;
+
+        OpenTable(int tableID, long segment, int bucket, int[] seats, long seed, long[] rejoinKeys) {
+            this.tableID = tableID;
+            this.segment = segment;
+            this.bucket = bucket;
+            this.seats = seats;
+            this.seed = seed;
+            this.rejoinKeys = rejoinKeys;
+            botSeats = new boolean[seats.length];
+        }
+    }
+
+    /**
+     * Receives the records of a journal in the order they were written. The
+     * body is positioned after the record type and table ID.
+     */
+    interface RecordHandler {
+        void record(int type, int tableID, ByteBuffer body);
+    }
+
+    /**
+     * Read every segment in the directory and return the tables that were
+     * opened and never finished, in the order they were opened. Reading a
+     * segment stops at the first record that is missing or damaged.
+     */
+    public static List<OpenTable> recover(File directory) throws IOException {
+        final LinkedHashMap<Integer, OpenTable> tables = new LinkedHashMap<Integer, OpenTable>();
+        for (File file : segmentFiles(directory)) {
+            final long index = segmentIndex(file);
+            read(file, 0, 1, new RecordHandler() {
+                public void record(int type, int tableID, ByteBuffer body) {
+                    readRecord(type, tableID, body, index, tables);
+                }
+            });
+        }
+        return new ArrayList<OpenTable>(tables.values());
+    }
+
+    /**
+     * Stream the records of one segment to the handler, only those of tables
+     * in the given partition: table ID modulo partitions. The records of other
+     * tables are skipped without being checked, so several threads can share
+     * the work of reading a journal.
+     */
+    static void read(File file, int partition, int partitions, RecordHandler handler) throws IOException {
+        RandomAccessFile segment = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer map = segment.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.length());
+            CRC32 crc = new CRC32();
+            byte[] bytes = new byte[MAX_RECORD_LENGTH];
+            ByteBuffer body = ByteBuffer.wrap(bytes);
+            int offset = 0;
+            while (offset + HEADER_LENGTH <= map.limit()) {
+                int length = map.getInt(offset);
+                if (length < 5 || length > MAX_RECORD_LENGTH || offset + HEADER_LENGTH + length > map.limit())
+                    return;     // End of segment, or never written.
+                int tableID = map.getInt(offset + HEADER_LENGTH + 1);
+                if (partitions == 1 || (tableID & Integer.MAX_VALUE) % partitions == partition) {
+                    for (int i = 0; i < length; i++)
+                        bytes[i] = map.get(offset + HEADER_LENGTH + i);
+                    crc.reset();
+                    crc.update(bytes, 0, length);
+                    if ((int)crc.getValue() != map.getInt(offset + 4))
+                        return;
+                    body.limit(length).position(5);
+                    handler.record(bytes[0], tableID, body);
+                }
+                offset += HEADER_LENGTH + length;
+            }
+        }
+        finally {
+            segment.close();
+        }
+    }
+
+    private static void readRecord(int type, int tableID, ByteBuffer record, long segment,
+                                   Map<Integer, OpenTable> tables) {
+        if (type == TABLE_OPEN) {
+            int bucket = record.getInt();
+            int[] seats = new int[record.get()];
+            for (int i = 0; i < seats.length; i++)
+                seats[i] = record.getInt();
+            long seed = record.getLong();
+            long[] rejoinKeys = new long[seats.length];
+            for (int i = 0; i < seats.length; i++)
+                rejoinKeys[i] = record.getLong();
+            tables.put(tableID, new OpenTable(tableID, segment, bucket, seats, seed, rejoinKeys));
+            return;
+        }
+        OpenTable table = tables.get(tableID);
+        if (table == null)
+            return;     // Opened in a segment that has been deleted: the game is over.
+        switch (type) {
+            case PLAY:
+                record.getInt();
+                int seat = record.get();
+                record.getInt();
+                table.plays.add(readPlay(record));
+                table.playSeats.add(seat);
+                break;
+            case SEAT_TO_BOT:
+                table.botSeats[record.get()] = true;
+                break;
+            case SEAT_REJOINED:
+                int rejoined = record.get();
+                table.seats[rejoined] = record.getInt();
+                table.botSeats[rejoined] = false;
+                break;
+            case GAME_OVER:
+                tables.remove(tableID);
+                break;
+        }
+    }
+
+    /* The cards of a PLAY record, after its turn, seat and turn time. */
+    static PlayMessage readPlay(ByteBuffer record) {
+        int[] codes = new int[record.get() & 0xFF];
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = record.get();
+        return new PlayMessage(codes);
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Replays the games in GameJournal segments, e.g. an archive of finished
+ * games, through GameState, the same rules PokerServer plays by, and feeds
+ * every deal, play and result to Aggregators.
+ *
+ * The work is split by table ID: each thread streams every segment in order
+ * but only replays the tables of its own partition, with its own Aggregator.
+ * Only the games in progress at the point a thread has read up to are held in
+ * memory, and their GameStates are reused. The Aggregators are merged at the
+ * end.
+ */
+public class GameReplay {
+
+    /**
+     * Incremental statistics over replayed games. Each replay thread gets its
+     * own, so they need no locking; merge() combines them at the end.
+     */
+    public interface Aggregator<A extends Aggregator<A>> {
+
+        /* A game was dealt; game is at its first turn. */
+        void gameStarted(int tableID, GameState game);
+
+        /* A play was accepted; game already shows it. */
+        void played(int tableID, GameState game, int seat, PlayMessage play, int turnMillis);
+
+        /* A game ended: game.getWinner() won, or it is -1 if all the players left. */
+        void gameOver(int tableID, GameState game);
+
+        void merge(A other);
+    }
+
+    private final DealingEngine engine;
+    private final int threads;
+
+    /**
+     * @param engine deals like the server's engine did, to redeal from the seeds
+     */
+    public GameReplay(DealingEngine engine, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Replay needs at least one thread.");
+        this.engine = engine;
+        this.threads = threads;
+    }
+
+    /**
+     * Replay every segment in these directories, oldest first, and return the
+     * merged Aggregator. Games opened before the first segment are skipped.
+     */
+    public <A extends Aggregator<A>> A replay(Supplier<A> factory, File... directories)
+            throws IOException, InterruptedException {
+        final List<File> segments = GameJournal.segmentFiles(directories);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "replay-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<A>> results = new ArrayList<Future<A>>();
+            for (int partition = 0; partition < threads; partition++) {
+                final Partition<A> replayer = new Partition<A>(partition, factory.get());
+                results.add(pool.submit(new Callable<A>() {
+                    public A call() throws IOException {
+                        for (File segment : segments)
+                            GameJournal.read(segment, replayer.partition, threads, replayer);
+                        return replayer.aggregator;
+                    }
+                }));
+            }
+            A merged = null;
+            for (Future<A> result : results) {
+                A aggregator = result.get();
+                if (merged == null)
+                    merged = aggregator;
+                else
+                    merged.merge(aggregator);
+            }
+            return merged;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw new IllegalStateException("Replay failed: " + e.getCause(), e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /* The tables of one partition, replayed on one thread. */
+    private class Partition<A extends Aggregator<A>> implements GameJournal.RecordHandler {
+
+        final int partition;
+        final A aggregator;
+        private final HashMap<Integer, GameState> games = new HashMap<Integer, GameState>();
+        private final ArrayDeque<GameState> free = new ArrayDeque<GameState>();
+
+        Partition(int partition, A aggregator) {
+            this.partition = partition;
+            this.aggregator = aggregator;
+        }
+
+        public void record(int type, int tableID, ByteBuffer body) {
+            switch (type) {
+                case GameJournal.TABLE_OPEN:
+                    body.getInt();
+                    int seats = body.get();
+                    body.position(body.position() + 4 * seats);
+                    GameState game = free.isEmpty() ? new GameState(engine) : free.poll();
+                    game.start(engine, body.getLong());
+                    release(games.put(tableID, game));      // An earlier game at this ID never finished.
+                    aggregator.gameStarted(tableID, game);
+                    break;
+                case GameJournal.PLAY:
+                    played(tableID, body);
+                    break;
+                case GameJournal.GAME_OVER:
+                    GameState abandoned = games.remove(tableID);
+                    if (abandoned != null) {
+                        aggregator.gameOver(tableID, abandoned);
+                        release(abandoned);
+                    }
+                    break;
+            }
+        }
+
+        private void played(int tableID, ByteBuffer body) {
+            GameState game = games.get(tableID);
+            if (game == null)
+                return;
+            body.getInt();
+            int seat = body.get();
+            int turnMillis = body.getInt();
+            PlayMessage play = GameJournal.readPlay(body);
+            if (seat != game.getCurrentSeat() || game.applyPlay(seat, play) != GameState.ACCEPTED) {
+                System.out.println("Table " + tableID + " is skipped: " + play + " is not a valid play there.");
+                release(games.remove(tableID));
+                return;
+            }
+            aggregator.played(tableID, game, seat, play, turnMillis);
+            if (game.getWinner() >= 0) {
+                aggregator.gameOver(tableID, game);
+                release(games.remove(tableID));
+            }
+        }
+
+        private void release(GameState game) {
+            if (game != null)
+                free.add(game);
+        }
+    }
+
+    /**
+     * Win rates by seat, game length, how often each combination and each rank
+     * is played, and how long turns take.
+     */
+    public static class Stats implements Aggregator<Stats> {
+
+        private long games;
+        private long abandoned;
+        private final long[] winsBySeat = new long[PokerTable.SEATS];
+        private long plays;
+        private long passes;
+        private long wonGamePlays;
+        private final long[] playsByType = new long[CardRules.JOKER_BOMB + 1];
+        private final long[] cardsByRank = new long[CardRules.RANKS];
+        private final LatencyHistogram turnTimes = new LatencyHistogram();
+
+        public void gameStarted(int tableID, GameState game) {
+        }
+
+        public void played(int tableID, GameState game, int seat, PlayMessage play, int turnMillis) {
+            plays++;
+            turnTimes.record(turnMillis * 1000L);
+            if (play.isPass()) {
+                passes++;
+                return;
+            }
+            playsByType[CardRules.typeOf(CardRules.classify(play))]++;
+            for (int i = 0; i < play.getCardCount(); i++)
+                cardsByRank[CardRules.rankOfCode(play.getCode(i))]++;
+        }
+
+        public void gameOver(int tableID, GameState game) {
+            games++;
+            if (game.getWinner() < 0) {
+                abandoned++;
+                return;
+            }
+            winsBySeat[game.getWinner()]++;
+            wonGamePlays += game.getTurns() + 1;
+        }
+
+        public void merge(Stats other) {
+            games += other.games;
+            abandoned += other.abandoned;
+            plays += other.plays;
+            passes += other.passes;
+            wonGamePlays += other.wonGamePlays;
+            for (int i = 0; i < winsBySeat.length; i++)
+                winsBySeat[i] += other.winsBySeat[i];
+            for (int i = 0; i < playsByType.length; i++)
+                playsByType[i] += other.playsByType[i];
+            for (int i = 0; i < cardsByRank.length; i++)
+                cardsByRank[i] += other.cardsByRank[i];
+            turnTimes.add(other.turnTimes);
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        public long getPlays() {
+            return plays;
+        }
+
+        public String toString() {
+            long won = games - abandoned;
+            StringBuilder report = new StringBuilder();
+            report.append(games).append(" games, ").append(abandoned).append(" abandoned, ")
+                    .append(plays).append(" plays, ").append(passes).append(" passes\n");
+            report.append("plays per won game: ").append(won == 0 ? 0 : wonGamePlays / won).append('\n');
+            report.append("wins by seat:");
+            for (int seat = 0; seat < winsBySeat.length; seat++)
+                report.append(' ').append(seat).append('=').append(percent(winsBySeat[seat], won));
+            report.append("\nplays by combination:");
+            for (int type = CardRules.SINGLE; type < playsByType.length; type++)
+                report.append("\n  ").append(CardRules.describe(CardRules.combination(type, 0, minLength(type))))
+                        .append(": ").append(playsByType[type]);
+            report.append("\ncards played by rank:");
+            for (int rank = 0; rank < cardsByRank.length; rank++)
+                report.append(' ').append(cardsByRank[rank]);
+            report.append("\nturn times: ").append(turnTimes);
+            return report.toString();
+        }
+
+        private static int minLength(int type) {
+            switch (type) {
+                case CardRules.STRAIGHT: return 5;
+                case CardRules.CONSECUTIVE_PAIRS: return 3;
+                case CardRules.BOMB: return 4;
+                case CardRules.JOKER_BOMB: return 4;
+                default: return 1;
+            }
+        }
+
+        private static String percent(long count, long total) {
+            return total == 0 ? "0%" : String.format("%.1f%%", 100.0 * count / total);
+        }
+    }
+}
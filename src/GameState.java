@@ -0,0 +1,135 @@
+/**
+ * The rules side of one game: the hands dealt, whose turn it is and the play to
+ * beat. PokerTable plays live games on it and GameReplay replays journaled
+ * ones, so both follow exactly the same rules. Not thread safe.
+ */
+public class GameState {
+
+    /* Results of applyPlay(); every one but ACCEPTED is a refusal, see refusalReason(). */
+    public static final int ACCEPTED = 0;
+    public static final int GAME_OVER = 1;
+    public static final int NOT_A_COMBINATION = 2;
+    public static final int MUST_LEAD = 3;
+    public static final int DOESNT_BEAT = 4;
+    public static final int NOT_IN_HAND = 5;
+
+    private final DealingEngine.Deal deal;
+    private final Hand[] hand = new Hand[PokerTable.SEATS];      // The hands of deal, by seat.
+    private final Hand scratch = new Hand();
+    private int currentSeat;
+    private int lastPlay = CardRules.NONE;  // Play to beat, see CardRules; NONE when the current seat leads.
+    private int lastPlaySeat;
+    private int turns;
+    private int winner = -1;
+
+    public GameState(DealingEngine engine) {
+        deal = engine.newDeal();
+        for (int seat = 0; seat < PokerTable.SEATS; seat++)
+            hand[seat] = deal.getHand(seat);
+    }
+
+    /* Fill this to deal a game, e.g. from a DealPool, then call start(). */
+    public DealingEngine.Deal getDeal() {
+        return deal;
+    }
+
+    /* Deal again the game of this seed and start it. */
+    public void start(DealingEngine engine, long seed) {
+        engine.deal(seed, deal);
+        start();
+    }
+
+    /* Seat 0 leads the game now in the deal. */
+    public void start() {
+        currentSeat = 0;
+        lastPlay = CardRules.NONE;
+        lastPlaySeat = 0;
+        turns = 0;
+        winner = -1;
+    }
+
+    public Hand getHand(int seat) {
+        return hand[seat];
+    }
+
+    public int getCurrentSeat() {
+        return currentSeat;
+    }
+
+    public int getLastPlay() {
+        return lastPlay;
+    }
+
+    public int getLastPlaySeat() {
+        return lastPlaySeat;
+    }
+
+    /* Plays made so far, not counting the one that won. */
+    public int getTurns() {
+        return turns;
+    }
+
+    /* The seat that played out its hand, or -1 while the game goes on. */
+    public int getWinner() {
+        return winner;
+    }
+
+    /*
+     * Check a play of the current seat and apply it. Returns ACCEPTED, or why
+     * the play was refused. A play that empties the hand wins the game and
+     * leaves the turn where it is.
+     */
+    public int applyPlay(int seat, PlayMessage play) {
+        if (winner >= 0)
+            return GAME_OVER;
+        int combination = CardRules.classify(play);
+        if (combination == CardRules.INVALID)
+            return NOT_A_COMBINATION;
+        if (combination == CardRules.NONE) {
+            if (lastPlay == CardRules.NONE)
+                return MUST_LEAD;
+        }
+        else if (!CardRules.beats(combination, lastPlay))
+            return DOESNT_BEAT;
+        if (!removeCards(hand[seat], play))
+            return NOT_IN_HAND;
+        if (hand[seat].isEmpty()) {
+            winner = seat;
+            return ACCEPTED;
+        }
+        if (combination != CardRules.NONE) {
+            lastPlay = combination;
+            lastPlaySeat = seat;
+        }
+        currentSeat = (currentSeat + 1) % PokerTable.SEATS;
+        if (currentSeat == lastPlaySeat)
+            lastPlay = CardRules.NONE;      // Everyone else passed: the last player leads again.
+        turns++;
+        return ACCEPTED;
+    }
+
+    /* What to tell the player whose play applyPlay() just refused. */
+    public String refusalReason(int result, PlayMessage play) {
+        switch (result) {
+            case GAME_OVER: return "The game is over.";
+            case NOT_A_COMBINATION: return play + " is not a valid play.";
+            case MUST_LEAD: return "You lead, you can't pass.";
+            case DOESNT_BEAT: return play + " doesn't beat the " + CardRules.describe(lastPlay) + " on the table.";
+            default: return "You don't hold " + play + ".";
+        }
+    }
+
+    /*
+     * Take the played cards out of a hand, or leave it untouched and return false
+     * if it doesn't hold all of them.
+     */
+    private boolean removeCards(Hand from, PlayMessage play) {
+        scratch.copyFrom(from);
+        for (int i = 0; i < play.getCardCount(); i++) {
+            if (!scratch.remove(play.getCode(i)))
+                return false;
+        }
+        from.copyFrom(scratch);
+        return true;
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.Serializable;
+
+/**
+ * The cards held by one player. With two decks each of the 54 card codes can be
+ * held at most twice, so a hand is two bit sets indexed by card code: firstCopy
+ * has a bit for every code held at least once, secondCopy for every code held
+ * twice. Counting, adding and removing a card are a few bit operations, and
+ * walking the codes in order visits the cards in rank order.
+ */
+public class Hand implements Serializable {
+
+    private static final long ALL_CODES = (1L << PokerCard.CARD_CODES) - 1;
+
+    private long firstCopy;
+    private long secondCopy;
+
+    public Hand() {
+    }
+
+    public Hand(long firstCopy, long secondCopy) {
+        if ((firstCopy & ~ALL_CODES) != 0 || (secondCopy & ~firstCopy) != 0)
+            throw new IllegalArgumentException("Illegal hand bits.");
+        this.firstCopy = firstCopy;
+        this.secondCopy = secondCopy;
+    }
+
+    public long getFirstCopyBits() {
+        return firstCopy;
+    }
+
+    public long getSecondCopyBits() {
+        return secondCopy;
+    }
+
+    public void add(PokerCard card) {
+        add(card.getCode());
+    }
+
+    public void add(int code) {
+        long bit = bit(code);
+        if ((firstCopy & bit) == 0)
+            firstCopy |= bit;
+        else if ((secondCopy & bit) == 0)
+            secondCopy |= bit;
+        else
+            throw new IllegalStateException("A hand can't hold more than two " + PokerCard.fromCode(code) + ".");
+    }
+
+    public boolean remove(PokerCard card) {
+        return remove(card.getCode());
+    }
+
+    /**
+     * Remove one copy of a card. Returns false if the hand does not hold it.
+     */
+    public boolean remove(int code) {
+        long bit = bit(code);
+        if ((secondCopy & bit) != 0)
+            secondCopy &= ~bit;
+        else if ((firstCopy & bit) != 0)
+            firstCopy &= ~bit;
+        else
+            return false;
+        return true;
+    }
+
+    public boolean contains(PokerCard card) {
+        return contains(card.getCode());
+    }
+
+    public boolean contains(int code) {
+        return (firstCopy & bit(code)) != 0;
+    }
+
+    /* Number of copies of this card held, 0 to 2. */
+    public int count(int code) {
+        long bit = bit(code);
+        return ((firstCopy & bit) != 0 ? 1 : 0) + ((secondCopy & bit) != 0 ? 1 : 0);
+    }
+
+    public int size() {
+        return Long.bitCount(firstCopy) + Long.bitCount(secondCopy);
+    }
+
+    public boolean isEmpty() {
+        return firstCopy == 0;
+    }
+
+    public void clear() {
+        firstCopy = 0;
+        secondCopy = 0;
+    }
+
+    public Hand copy() {
+        return new Hand(firstCopy, secondCopy);
+    }
+
+    public void copyFrom(Hand other) {
+        firstCopy = other.firstCopy;
+        secondCopy = other.secondCopy;
+    }
+
+    /**
+     * Lowest card code held that is at least fromCode, or -1 if there is none.
+     * Loop with nextCode(code + 1) to walk the distinct cards in rank order
+     * without allocating.
+     */
+    public int nextCode(int fromCode) {
+        if (fromCode >= PokerCard.CARD_CODES)
+            return -1;
+        long remaining = firstCopy & (-1L << Math.max(fromCode, 0));
+        return remaining == 0 ? -1 : Long.numberOfTrailingZeros(remaining);
+    }
+
+    /**
+     * The card at a position in rank order, counting both copies of a pair.
+     */
+    public PokerCard cardAt(int index) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("Card index " + index + ".");
+        for (int code = nextCode(0); code >= 0; code = nextCode(code + 1)) {
+            index -= count(code);
+            if (index < 0)
+                return PokerCard.fromCode(code);
+        }
+        throw new IndexOutOfBoundsException("The hand holds only " + size() + " cards.");
+    }
+
+    /* All cards held, in rank order. */
+    public PokerCard[] toArray() {
+        PokerCard[] cards = new PokerCard[size()];
+        int i = 0;
+        for (int code = nextCode(0); code >= 0; code = nextCode(code + 1)) {
+            cards[i++] = PokerCard.fromCode(code);
+            if ((secondCopy & bit(code)) != 0)
+                cards[i++] = PokerCard.fromCode(code);
+        }
+        return cards;
+    }
+
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Hand))
+            return false;
+        Hand hand = (Hand)obj;
+        return firstCopy == hand.firstCopy && secondCopy == hand.secondCopy;
+    }
+
+    public int hashCode() {
+        long h = firstCopy * 31 + secondCopy;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder("[");
+        for (PokerCard card : toArray()) {
+            if (s.length() > 1)
+                s.append(", ");
+            s.append(card);
+        }
+        return s.append("]").toString();
+    }
+
+    private static long bit(int code) {
+        if (code < 0 || code >= PokerCard.CARD_CODES)
+            throw new IllegalArgumentException("Illegal card code " + code + ".");
+        return 1L << code;
+    }
+}
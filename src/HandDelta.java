@@ -0,0 +1,33 @@
+import java.io.Serializable;
+
+/**
+ * Sent by the server to the whole table after every accepted play, instead of
+ * resending hands: who played, what they played, how many cards they have
+ * left and whose turn it is now. The player who made the play removes the
+ * cards from its copy of the hand; the server also resends full hands every
+ * few turns so that copy can't drift.
+ */
+public class HandDelta implements Serializable {
+
+    public final int playerID;
+    public final PlayMessage play;
+    public final int cardsLeft;
+    public final int nextPlayerID;
+
+    public HandDelta(int playerID, PlayMessage play, int cardsLeft, int nextPlayerID) {
+        this.playerID = playerID;
+        this.play = play;
+        this.cardsLeft = cardsLeft;
+        this.nextPlayerID = nextPlayerID;
+    }
+
+    /* Apply this delta to the hand of the player who made the play. */
+    public void applyTo(Hand hand) {
+        for (int i = 0; i < play.getCardCount(); i++)
+            hand.remove(play.getCode(i));
+    }
+
+    public String toString() {
+        return "player " + playerID + " play: " + play + " (" + cardsLeft + " cards left)";
+    }
+}
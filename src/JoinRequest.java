@@ -0,0 +1,13 @@
+import java.io.Serializable;
+
+/**
+ * Sent by a player once connected, to wait in the lobby for a new table. The
+ * server seats nobody who hasn't asked: a player who reconnected after a
+ * restart sends a RejoinRequest instead, to take back their old seat.
+ */
+public class JoinRequest implements Serializable {
+
+    public String toString() {
+        return "join a table";
+    }
+}
@@ -0,0 +1,50 @@
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append throughput check of the GameJournal: games of plays from a few
+ * threads, then recover the directory.
+ * Usage: JournalBenchmark [directory] [games per thread] [threads]
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final File directory = new File(args.length > 0 ? args[0] : "journal-check");
+        final int games = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        for (File segment : GameJournal.segmentFiles(directory))
+            segment.delete();
+        final GameJournal journal = new GameJournal(directory, 1 << 22, 5, TimeUnit.MILLISECONDS);
+        final PlayMessage play = new PlayMessage(new int[] {3, 16, 29});
+        Thread[] writers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int first = t * games;
+            writers[t] = new Thread(new Runnable() {
+                public void run() {
+                    int[] seats = {1, 2, 3};
+                    long[] rejoinKeys = new long[seats.length];
+                    for (int table = first; table < first + games; table++) {
+                        journal.tableOpened(table, 0, seats, table, rejoinKeys);
+                        for (int turn = 0; turn < 90; turn++)
+                            journal.played(table, turn, turn % seats.length, play, 1000);
+                        if (table % 100 != 0)       // Leave one game in a hundred open.
+                            journal.gameOver(table);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+        journal.flush();
+        long nanos = System.nanoTime() - start;
+        System.out.println(journal.getAppends() + " appends in " + nanos / 1000000 + " ms: "
+                + (long)(journal.getAppends() / (nanos / 1e9)) + " appends/sec, " + journal.getFlushes() + " flushes.");
+        start = System.nanoTime();
+        List<GameJournal.OpenTable> open = GameJournal.recover(directory);
+        System.out.println("Recovered " + open.size() + " open tables in " + (System.nanoTime() - start) / 1000000 + " ms.");
+        journal.close();
+    }
+}
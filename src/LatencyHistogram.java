@@ -0,0 +1,70 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in microseconds. Values are counted in
+ * log-linear buckets (8 per power of two), so percentiles are accurate to
+ * about 12% over the whole range.
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR = 16;       // Values below this get a bucket each.
+    private static final int SUB_BUCKETS = 8;
+    private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long micros) {
+        counts.incrementAndGet(indexOf(Math.max(0, micros)));
+    }
+
+    /* Add the counts of another histogram to this one, e.g. to merge per-thread histograms. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.addAndGet(i, other.counts.get(i));
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    /**
+     * Upper bound, in microseconds, of the bucket holding the given percentile (0-100).
+     */
+    public long getPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0)
+            return 0;
+        long rank = (long)Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, rank))
+                return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR)
+            return (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < LINEAR)
+            return index;
+        int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (index - LINEAR) % SUB_BUCKETS;
+        return ((long)(SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+    }
+
+    public String toString() {
+        return "count=" + getCount() + " p50=" + getPercentile(50) + "us p99=" + getPercentile(99) +
+                "us p99.9=" + getPercentile(99.9) + "us";
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups waiting players into full tables without a global lock. Players
+ * wait in buckets (for example by skill or latency band) and are only ever
+ * grouped with players from the same bucket.
+ *
+ * Each bucket keeps a deque of entries and a count of entries not yet claimed.
+ * A thread that brings the count to a full table claims that many entries by
+ * decreasing the count with a CAS, then polls them; entries of players who left
+ * meanwhile are skipped and replaced by claiming more. If not enough live
+ * entries can be claimed, the partial group goes back to the head of the deque.
+ */
+public class Lobby {
+
+    /**
+     * Told about every group of players that has been seated together.
+     */
+    public interface SeatingListener {
+        void seated(int[] playerIDs, int bucket);
+    }
+
+    private static final int WAITING = 0;
+    private static final int SEATED = 1;
+    private static final int CANCELLED = 2;
+
+    private final int tableSize;
+    private final SeatingListener listener;
+    private final ConcurrentHashMap<Integer, Bucket> buckets = new ConcurrentHashMap<Integer, Bucket>();
+    private final ConcurrentHashMap<Integer, Entry> waitingByPlayer = new ConcurrentHashMap<Integer, Entry>();
+    private final LatencyHistogram timeToSeat = new LatencyHistogram();
+
+    public Lobby(int tableSize, SeatingListener listener) {
+        this.tableSize = tableSize;
+        this.listener = listener;
+    }
+
+    public void join(int playerID) {
+        join(playerID, 0);
+    }
+
+    public void join(int playerID, int bucket) {
+        enqueue(new Entry(playerID, bucket, System.nanoTime()), false);
+    }
+
+    /**
+     * Put players back at the front of their bucket, keeping their original
+     * join time, e.g. when a table is abandoned before the deal.
+     */
+    public void requeue(int[] playerIDs, int bucket, long joinNanos) {
+        for (int i = playerIDs.length - 1; i >= 0; i--)
+            enqueue(new Entry(playerIDs[i], bucket, joinNanos), true);
+    }
+
+    /**
+     * Remove a player who is still waiting. Returns false if the player was not waiting.
+     */
+    public boolean leave(int playerID) {
+        Entry entry = waitingByPlayer.remove(playerID);
+        return entry != null && entry.state.compareAndSet(WAITING, CANCELLED);
+    }
+
+    public int getWaitingPlayers() {
+        return waitingByPlayer.size();
+    }
+
+    /**
+     * Time from join to being seated, in microseconds.
+     */
+    public LatencyHistogram getTimeToSeat() {
+        return timeToSeat;
+    }
+
+    private void enqueue(Entry entry, boolean atFront) {
+        Bucket bucket = bucketFor(entry.bucket);
+        Entry previous = waitingByPlayer.put(entry.playerID, entry);
+        if (previous != null)
+            previous.state.compareAndSet(WAITING, CANCELLED);
+        if (atFront)
+            bucket.entries.addFirst(entry);
+        else
+            bucket.entries.addLast(entry);
+        bucket.unclaimed.incrementAndGet();     // Only after the entry is visible in the deque.
+        formTables(bucket);
+    }
+
+    private Bucket bucketFor(int bucket) {
+        Bucket existing = buckets.get(bucket);
+        if (existing != null)
+            return existing;
+        Bucket created = new Bucket(bucket);
+        existing = buckets.putIfAbsent(bucket, created);
+        return existing != null ? existing : created;
+    }
+
+    private void formTables(Bucket bucket) {
+        while (claim(bucket, tableSize)) {
+            Entry[] group = new Entry[tableSize];
+            int filled = 0;
+            int claimed = tableSize;    // Entries still to be polled; never given up unpolled.
+            while (filled < tableSize) {
+                if (claimed == 0) {     // Cancelled entries used up the claims.
+                    if (!claim(bucket, 1))
+                        break;
+                    claimed++;
+                }
+                Entry entry = bucket.entries.pollFirst();
+                claimed--;
+                if (entry != null && entry.state.compareAndSet(WAITING, SEATED))
+                    group[filled++] = entry;
+            }
+            if (filled < tableSize) {
+                for (int i = filled - 1; i >= 0; i--)
+                    putBack(bucket, group[i]);
+                return;
+            }
+            seat(bucket, group);
+        }
+    }
+
+    private void putBack(Bucket bucket, Entry entry) {
+        entry.state.set(WAITING);
+        if (waitingByPlayer.get(entry.playerID) != entry) {     // Left while we held the entry.
+            entry.state.compareAndSet(WAITING, CANCELLED);
+            return;
+        }
+        bucket.entries.addFirst(entry);
+        bucket.unclaimed.incrementAndGet();
+    }
+
+    private boolean claim(Bucket bucket, int count) {
+        while (true) {
+            int unclaimed = bucket.unclaimed.get();
+            if (unclaimed < count)
+                return false;
+            if (bucket.unclaimed.compareAndSet(unclaimed, unclaimed - count))
+                return true;
+        }
+    }
+
+    private void seat(Bucket bucket, Entry[] group) {
+        long now = System.nanoTime();
+        int[] playerIDs = new int[group.length];
+        for (int i = 0; i < group.length; i++) {
+            playerIDs[i] = group[i].playerID;
+            waitingByPlayer.remove(group[i].playerID, group[i]);
+            timeToSeat.record((now - group[i].joinNanos) / 1000);
+        }
+        listener.seated(playerIDs, bucket.id);
+    }
+
+    private static class Bucket {
+        final int id;
+        final ConcurrentLinkedDeque<Entry> entries = new ConcurrentLinkedDeque<Entry>();
+        final AtomicInteger unclaimed = new AtomicInteger();
+
+        Bucket(int id) {
+            this.id = id;
+        }
+    }
+
+    private static class Entry {
+        final int playerID;
+        final int bucket;
+        final long joinNanos;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+
+        Entry(int playerID, int bucket, long joinNanos) {
+            this.playerID = playerID;
+            this.bucket = bucket;
+            this.joinNanos = joinNanos;
+        }
+    }
+}
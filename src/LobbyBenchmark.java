@@ -0,0 +1,57 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Join storm for the Lobby: joiner threads each add players at a fixed share
+ * of the target rate, whether or not the lobby keeps up, and one in twenty
+ * leaves again at once. Prints the join rate reached and the time-to-seat
+ * percentiles from getTimeToSeat().
+ * Usage: LobbyBenchmark [joins per second] [seconds] [buckets] [joiner threads]
+ */
+public class LobbyBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        final int rate = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final int bucketCount = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        final int threadCount = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        final AtomicInteger tables = new AtomicInteger();
+        final Lobby lobby = new Lobby(PokerTable.SEATS, new Lobby.SeatingListener() {
+            public void seated(int[] playerIDs, int bucket) {
+                tables.incrementAndGet();
+            }
+        });
+        final AtomicInteger nextPlayerID = new AtomicInteger(1);
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) * threadCount / rate;
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final long first = start + intervalNanos * t / threadCount;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (long due = first; due < end; due += intervalNanos) {
+                        long wait = due - System.nanoTime();
+                        if (wait > 0)
+                            LockSupport.parkNanos(wait);
+                        int playerID = nextPlayerID.getAndIncrement();
+                        lobby.join(playerID, playerID % bucketCount);
+                        if (playerID % 20 == 0)
+                            lobby.leave(playerID);
+                    }
+                }
+            }, "joiner-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        int joins = nextPlayerID.get() - 1;
+        System.out.println(joins + " joins in " + String.format("%.2f", elapsed) + " s (" + (int)(joins / elapsed)
+                + "/sec, target " + rate + ") into " + bucketCount + " bucket(s): " + tables.get() + " tables, "
+                + lobby.getWaitingPlayers() + " still waiting.");
+        LatencyHistogram timeToSeat = lobby.getTimeToSeat();
+        System.out.println("Time to seat: " + timeToSeat + " max=" + timeToSeat.getPercentile(100) + "us");
+    }
+}
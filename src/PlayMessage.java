@@ -0,0 +1,48 @@
+import java.io.Serializable;
+
+/**
+ * Sent by a player to make a play: the codes of the cards played, see
+ * PokerCard.getCode(). A play with no cards is a pass. The server checks the
+ * cards against the hand it keeps for the player.
+ */
+public class PlayMessage implements Serializable {
+
+    private final byte[] codes;
+
+    public PlayMessage(int... codes) {
+        this.codes = new byte[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] < 0 || codes[i] >= PokerCard.CARD_CODES)
+                throw new IllegalArgumentException("Illegal card code " + codes[i] + ".");
+            this.codes[i] = (byte)codes[i];
+        }
+    }
+
+    public static PlayMessage pass() {
+        return new PlayMessage();
+    }
+
+    public boolean isPass() {
+        return codes.length == 0;
+    }
+
+    public int getCardCount() {
+        return codes.length;
+    }
+
+    public int getCode(int index) {
+        return codes[index];
+    }
+
+    public String toString() {
+        if (isPass())
+            return "pass";
+        StringBuilder s = new StringBuilder();
+        for (byte code : codes) {
+            if (s.length() > 0)
+                s.append(", ");
+            s.append(PokerCard.fromCode(code));
+        }
+        return s.toString();
+    }
+}
@@ -1,5 +1,12 @@
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 
+/**
+ * A playing card. The 54 cards of a deck are interned: valueOf() and fromCode()
+ * always return the same instance, and deserialized cards resolve to it, so a
+ * server holding many hands shares one copy of each card. Hot paths can skip the
+ * objects entirely and work with the int codes from getCode().
+ */
 public class PokerCard implements Serializable {
 
     public final static int SPADES = 0;
@@ -13,6 +20,18 @@ public class PokerCard implements Serializable {
     public final static int QUEEN = 12;
     public final static int KING = 13;
 
+    /* Number of card codes; codes run from 0 to CARD_CODES - 1. */
+    public final static int CARD_CODES = 54;
+
+    private final static PokerCard[] CARDS = new PokerCard[CARD_CODES];
+
+    static {
+        for (int code = 0; code < 52; code++)
+            CARDS[code] = new PokerCard(code / 4 + 2, code % 4);
+        CARDS[52] = new PokerCard(1, JOKER);
+        CARDS[53] = new PokerCard(2, JOKER);
+    }
+
     private final int suit;
     private final int value;
 
@@ -81,6 +100,56 @@ public class PokerCard implements Serializable {
             return getValueAsString() + " of " + getSuitAsString();
     }
 
+    /**
+     * Compact code of this card, 0-53. Ordinary cards are numbered in rank order,
+     * (value - 2) * 4 + suit, so 2 of Spades is 0 and Ace of Clubs is 51; the
+     * jokers are 52 and 53.
+     */
+    public int getCode() {
+        if (suit == JOKER) {
+            if (value != 1 && value != 2)
+                throw new IllegalStateException("Joker #" + value + " has no card code.");
+            return 51 + value;
+        }
+        return (value - 2) * 4 + suit;
+    }
+
+    /**
+     * The interned card for a code from getCode().
+     */
+    public static PokerCard fromCode(int code) {
+        if (code < 0 || code >= CARD_CODES)
+            throw new IllegalArgumentException("Illegal card code " + code + ".");
+        return CARDS[code];
+    }
+
+    /**
+     * The interned card with this value and suit; jokers are value 1 and 2.
+     */
+    public static PokerCard valueOf(int value, int suit) {
+        return fromCode(codeOf(value, suit));
+    }
+
+    public static int codeOf(int value, int suit) {
+        if (suit == JOKER) {
+            if (value != 1 && value != 2)
+                throw new IllegalArgumentException("Illegal joker value " + value + ".");
+            return 51 + value;
+        }
+        if (suit < SPADES || suit > CLUBS || value < 2 || value > 14)
+            throw new IllegalArgumentException("Illegal playing card.");
+        return (value - 2) * 4 + suit;
+    }
+
+    /* Value of the card with this code, without touching the card object. */
+    public static int valueOfCode(int code) {
+        return code >= 52 ? code - 51 : code / 4 + 2;
+    }
+
+    public static int suitOfCode(int code) {
+        return code >= 52 ? JOKER : code % 4;
+    }
+
     public boolean equals(Object obj) {
         if (obj == null || !(obj instanceof PokerCard))
             return false;
@@ -88,6 +157,17 @@ public class PokerCard implements Serializable {
         return (this.suit == card.suit && this.value == card.value);
     }
 
+    public int hashCode() {
+        return value * 8 + suit;
+    }
+
+    /* Keep deserialized cards canonical. */
+    private Object readResolve() throws ObjectStreamException {
+        if (suit == JOKER && value != 1 && value != 2)
+            return this;
+        return CARDS[getCode()];
+    }
+
 //    public int getWeight() {
 //        return weight;
 //    }
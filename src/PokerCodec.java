@@ -0,0 +1,199 @@
+import networkcore.BinaryCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary codec for the messages PokerServer and PokerPlayer exchange. A card is
+ * one byte holding its card code; a hand is its two bit sets, see Hand. Plays
+ * and deltas carry their cards as a count followed by one code per card.
+ */
+public class PokerCodec {
+
+    private static final int CARD_TAG = BinaryCodec.FIRST_APPLICATION_TAG;
+    private static final int HAND_TAG = BinaryCodec.FIRST_APPLICATION_TAG + 1;
+    private static final int PLAY_TAG = BinaryCodec.FIRST_APPLICATION_TAG + 2;
+    private static final int DELTA_TAG = BinaryCodec.FIRST_APPLICATION_TAG + 3;
+    private static final int REJOIN_TAG = BinaryCodec.FIRST_APPLICATION_TAG + 4;
+    private static final int VIEW_TAG = BinaryCodec.FIRST_APPLICATION_TAG + 5;
+    private static final int WATCH_TAG = BinaryCodec.FIRST_APPLICATION_TAG + 6;
+    private static final int REJOIN_KEY_TAG = BinaryCodec.FIRST_APPLICATION_TAG + 7;
+    private static final int JOIN_TAG = BinaryCodec.FIRST_APPLICATION_TAG + 8;
+
+    public static BinaryCodec create() {
+        BinaryCodec codec = new BinaryCodec();
+        codec.registerConstant("your turn");
+        codec.registerConstant("*Game Begin*");
+        codec.register(CARD_TAG, PokerCard.class,
+                new BinaryCodec.TypeWriter<PokerCard>() {
+                    public void write(PokerCard card, DataOutputStream output) throws IOException {
+                        output.writeByte(card.getCode());
+                    }
+                },
+                new BinaryCodec.TypeReader<PokerCard>() {
+                    public PokerCard read(DataInputStream input) throws IOException {
+                        return readCard(input.readUnsignedByte());
+                    }
+                });
+        codec.register(HAND_TAG, Hand.class,
+                new BinaryCodec.TypeWriter<Hand>() {
+                    public void write(Hand hand, DataOutputStream output) throws IOException {
+                        output.writeLong(hand.getFirstCopyBits());
+                        output.writeLong(hand.getSecondCopyBits());
+                    }
+                },
+                new BinaryCodec.TypeReader<Hand>() {
+                    public Hand read(DataInputStream input) throws IOException {
+                        long firstCopy = input.readLong();
+                        long secondCopy = input.readLong();
+                        try {
+                            return new Hand(firstCopy, secondCopy);
+                        }
+                        catch (IllegalArgumentException e) {
+                            throw new IOException(e.getMessage());
+                        }
+                    }
+                });
+        codec.register(PLAY_TAG, PlayMessage.class,
+                new BinaryCodec.TypeWriter<PlayMessage>() {
+                    public void write(PlayMessage play, DataOutputStream output) throws IOException {
+                        writePlay(play, output);
+                    }
+                },
+                new BinaryCodec.TypeReader<PlayMessage>() {
+                    public PlayMessage read(DataInputStream input) throws IOException {
+                        return readPlay(input);
+                    }
+                });
+        codec.register(DELTA_TAG, HandDelta.class,
+                new BinaryCodec.TypeWriter<HandDelta>() {
+                    public void write(HandDelta delta, DataOutputStream output) throws IOException {
+                        output.writeInt(delta.playerID);
+                        writePlay(delta.play, output);
+                        output.writeByte(delta.cardsLeft);
+                        output.writeInt(delta.nextPlayerID);
+                    }
+                },
+                new BinaryCodec.TypeReader<HandDelta>() {
+                    public HandDelta read(DataInputStream input) throws IOException {
+                        int playerID = input.readInt();
+                        PlayMessage play = readPlay(input);
+                        int cardsLeft = input.readUnsignedByte();
+                        return new HandDelta(playerID, play, cardsLeft, input.readInt());
+                    }
+                });
+        codec.register(REJOIN_TAG, RejoinRequest.class,
+                new BinaryCodec.TypeWriter<RejoinRequest>() {
+                    public void write(RejoinRequest request, DataOutputStream output) throws IOException {
+                        output.writeInt(request.playerID);
+                        output.writeLong(request.key);
+                    }
+                },
+                new BinaryCodec.TypeReader<RejoinRequest>() {
+                    public RejoinRequest read(DataInputStream input) throws IOException {
+                        int playerID = input.readInt();
+                        return new RejoinRequest(playerID, input.readLong());
+                    }
+                });
+        codec.register(REJOIN_KEY_TAG, RejoinKey.class,
+                new BinaryCodec.TypeWriter<RejoinKey>() {
+                    public void write(RejoinKey key, DataOutputStream output) throws IOException {
+                        output.writeInt(key.playerID);
+                        output.writeLong(key.key);
+                        output.writeByte(key.seats.length);
+                        for (int seat = 0; seat < key.seats.length; seat++)
+                            output.writeInt(key.seats[seat]);
+                    }
+                },
+                new BinaryCodec.TypeReader<RejoinKey>() {
+                    public RejoinKey read(DataInputStream input) throws IOException {
+                        int playerID = input.readInt();
+                        long key = input.readLong();
+                        int[] seats = new int[input.readUnsignedByte()];
+                        for (int seat = 0; seat < seats.length; seat++)
+                            seats[seat] = input.readInt();
+                        return new RejoinKey(playerID, key, seats);
+                    }
+                });
+        codec.register(VIEW_TAG, TableView.class,
+                new BinaryCodec.TypeWriter<TableView>() {
+                    public void write(TableView view, DataOutputStream output) throws IOException {
+                        output.writeInt(view.tableID);
+                        output.writeInt(view.version);
+                        output.writeByte(view.seats.length);
+                        for (int seat = 0; seat < view.seats.length; seat++) {
+                            output.writeInt(view.seats[seat]);
+                            output.writeByte(view.cardsLeft[seat]);
+                        }
+                        output.writeByte(view.lastMoveSeat);
+                        writePlay(view.lastMove, output);
+                        output.writeByte(view.currentSeat);
+                        output.writeByte(view.winnerSeat);
+                        output.writeBoolean(view.over);
+                    }
+                },
+                new BinaryCodec.TypeReader<TableView>() {
+                    public TableView read(DataInputStream input) throws IOException {
+                        int tableID = input.readInt();
+                        int version = input.readInt();
+                        int[] seats = new int[input.readUnsignedByte()];
+                        int[] cardsLeft = new int[seats.length];
+                        for (int seat = 0; seat < seats.length; seat++) {
+                            seats[seat] = input.readInt();
+                            cardsLeft[seat] = input.readUnsignedByte();
+                        }
+                        int lastMoveSeat = input.readByte();
+                        PlayMessage lastMove = readPlay(input);
+                        int currentSeat = input.readByte();
+                        int winnerSeat = input.readByte();
+                        return new TableView(tableID, version, seats, cardsLeft, lastMoveSeat, lastMove,
+                                currentSeat, winnerSeat, input.readBoolean());
+                    }
+                });
+        codec.register(WATCH_TAG, WatchRequest.class,
+                new BinaryCodec.TypeWriter<WatchRequest>() {
+                    public void write(WatchRequest request, DataOutputStream output) throws IOException {
+                        output.writeInt(request.tableID);
+                    }
+                },
+                new BinaryCodec.TypeReader<WatchRequest>() {
+                    public WatchRequest read(DataInputStream input) throws IOException {
+                        return new WatchRequest(input.readInt());
+                    }
+                });
+        codec.register(JOIN_TAG, JoinRequest.class,
+                new BinaryCodec.TypeWriter<JoinRequest>() {
+                    public void write(JoinRequest request, DataOutputStream output) {
+                    }
+                },
+                new BinaryCodec.TypeReader<JoinRequest>() {
+                    public JoinRequest read(DataInputStream input) {
+                        return new JoinRequest();
+                    }
+                });
+        return codec;
+    }
+
+    private static void writePlay(PlayMessage play, DataOutputStream output) throws IOException {
+        output.writeByte(play.getCardCount());
+        for (int i = 0; i < play.getCardCount(); i++)
+            output.writeByte(play.getCode(i));
+    }
+
+    private static PlayMessage readPlay(DataInputStream input) throws IOException {
+        int[] codes = new int[input.readUnsignedByte()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = input.readUnsignedByte();
+            if (codes[i] >= PokerCard.CARD_CODES)
+                throw new IOException("Illegal card code " + codes[i] + ".");
+        }
+        return new PlayMessage(codes);
+    }
+
+    private static PokerCard readCard(int code) throws IOException {
+        if (code > 53)
+            throw new IOException("Illegal card code " + code + ".");
+        return PokerCard.fromCode(code);
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.concurrent.ThreadLocalRandom;
+
 public class PokerDeck {
 
     private PokerCard[] deck;
@@ -8,19 +10,20 @@ public class PokerDeck {
         int cardCt = 0;
         for (int suit = 0; suit <= 3; suit++) {
             for (int value = 2; value <= 14; value++) {
-                deck[cardCt] = new PokerCard(value, suit);
+                deck[cardCt] = PokerCard.valueOf(value, suit);
                 cardCt++;
             }
         }
-        deck[52] = new PokerCard(1, PokerCard.JOKER);
-        deck[53] = new PokerCard(2, PokerCard.JOKER);
+        deck[52] = PokerCard.valueOf(1, PokerCard.JOKER);
+        deck[53] = PokerCard.valueOf(2, PokerCard.JOKER);
 
         cardsUsed = 0;
     }
 
     public void shuffle() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
         for (int i = deck.length - 1; i > 0; i--) {
-            int rand = (int)(Math.random() * (i + 1));
+            int rand = random.nextInt(i + 1);
             PokerCard temp = deck[i];
             deck[i] = deck[rand];
             deck[rand] = temp;
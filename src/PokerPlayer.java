@@ -1,17 +1,39 @@
 import networkcore.Client;
+import networkcore.ClientConfig;
+import networkcore.RequestFailedException;
 
 import java.io.IOException;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
 
 public class PokerPlayer extends Client {
 
-    private PokerCard[] hand;
-    private boolean isMyTurn;
-    private int playCardID;
-    Scanner input = new Scanner(System.in);
+    /* Written by the callback thread; the console thread reads them, and the hand under its lock. */
+    private Hand hand;
+    private volatile boolean isMyTurn;
+    private final Scanner input = new Scanner(System.in);
 
+    /*
+     * Messages are handled on a callback thread and typed plays are read on a
+     * console thread, so waiting for the player never holds up the receive thread.
+     */
     public PokerPlayer(String hostIPAddress, int hostPort) throws IOException {
-        super(hostIPAddress, hostPort);
+        super(hostIPAddress, hostPort, new ClientConfig().setCodec(PokerCodec.create())
+                .setCallbackExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, "player-callbacks");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                })));
+        Thread console = new Thread(new Runnable() {
+            public void run() {
+                readPlays();
+            }
+        }, "player-console");
+        console.start();
     }
 
     protected void playerConnected(int newPlayerID) {
@@ -22,44 +44,124 @@ public class PokerPlayer extends Client {
 
     }
 
-    protected void connectionClosedByError(String message) { }
+    protected void connectionClosedByError(String message) {
+        System.out.println(message);
+    }
 
-    protected void serverShutdown(String message) { }
+    protected void serverShutdown(String message) {
+        System.out.println(message);
+    }
 
     protected void messageReceived(Object message) {
         if ("your turn".equals(message)) {
             System.out.println(message);
-            printHand();
-            playCardID = input.nextInt();
-            PokerCard p = hand[playCardID];
-            send(p);
-            hand[playCardID] = null;
-            send(hand);
+            yourTurn();
+        }
+        else if (message instanceof HandDelta) {
+            HandDelta delta = (HandDelta)message;
+            System.out.println(delta);
+            if (delta.playerID == getID()) {
+                synchronized (this) {
+                    delta.applyTo(hand);
+                }
+            }
+            if (delta.nextPlayerID == getID() && delta.cardsLeft > 0) {
+                System.out.println("your turn");
+                yourTurn();
+            }
         }
-        else if (message instanceof PokerCard[]) {
-            hand = (PokerCard[])message;
+        else if (message instanceof Hand) {
+            synchronized (this) {
+                hand = (Hand)message;   // Full state from the server, replaces our copy.
+            }
             printHand();
         }
+        else if (message instanceof RejoinKey) {
+            RejoinKey key = (RejoinKey)message;
+            System.out.println("If the server restarts, take back your seat with: PokerPlayer "
+                    + key.playerID + " " + Long.toHexString(key.key));
+        }
         else if (message instanceof String) {
             System.out.println((String)message);
         }
     }
 
-    private void printHand() {
+    private void yourTurn() {
+        printHand();
+        isMyTurn = true;
+    }
+
+    /*
+     * Read the positions of the cards to play, as printed by printHand(), one
+     * play per line; an empty line passes. Each play is a request: if the
+     * server refuses it, the reason is printed and the turn is ours again.
+     */
+    private void readPlays() {
+        while (input.hasNextLine()) {
+            String line = input.nextLine().trim();
+            if (!isMyTurn) {
+                System.out.println("It is not your turn.");
+                continue;
+            }
+            int[] codes;
+            try {
+                codes = codesAt(line.isEmpty() ? new String[0] : line.split("\\s+"));
+            }
+            catch (NumberFormatException e) {
+                System.out.println("Enter card numbers separated by spaces.");
+                continue;
+            }
+            catch (IndexOutOfBoundsException e) {
+                System.out.println(e.getMessage());
+                continue;
+            }
+            isMyTurn = false;
+            try {
+                request(new PlayMessage(codes)).whenComplete(new BiConsumer<Object, Throwable>() {
+                    public void accept(Object cardsLeft, Throwable error) {
+                        if (error != null) {
+                            System.out.println(error instanceof RequestFailedException ? error.getMessage()
+                                    : "The play got no answer: " + error.getMessage());
+                            yourTurn();
+                        }
+                    }
+                });
+            }
+            catch (IllegalStateException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private synchronized int[] codesAt(String[] positions) {
+        int[] codes = new int[positions.length];
+        for (int i = 0; i < positions.length; i++)
+            codes[i] = hand.cardAt(Integer.parseInt(positions[i])).getCode();
+        return codes;
+    }
+
+    private synchronized void printHand() {
         int num = 0;
         System.out.println("-------------------------------------------------------------------------");
-        for (PokerCard c : hand) {
-            if (c != null) {
-                System.out.println(num + " | " + c.toString());
-                num++;
-            }
+        for (PokerCard c : hand.toArray()) {
+            System.out.println(num + " | " + c.toString());
+            num++;
         }
         System.out.println("-------------------------------------------------------------------------");
     }
 
+    /*
+     * Usage: PokerPlayer [old player ID] [rejoin key], to take back a seat in a
+     * game the server recovered after a restart instead of joining a new one.
+     * The key is printed when the game begins.
+     */
     public static void main(String[] args) {
         try {
             PokerPlayer pokerPlayer = new PokerPlayer("192.168.43.124", 32058);
+            if (args.length > 1)
+                pokerPlayer.send(new RejoinRequest(Integer.parseInt(args[0]), Long.parseUnsignedLong(args[1], 16)));
+            else
+                pokerPlayer.send(new JoinRequest());
         }
         catch (IOException e) {
             e.printStackTrace();
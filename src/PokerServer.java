@@ -1,104 +1,97 @@
 import networkcore.Server;
+import networkcore.ServerConfig;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class PokerServer extends Server {
 
-    private int currentPlayer;
+    private static final int JOURNAL_SEGMENT_SIZE = 16 << 20;
+    private static final long JOURNAL_FLUSH_MILLIS = 10;
+    private static final int RESUME_GRACE_SECONDS = 30;     // A player whose connection drops keeps the seat this long.
+    private static final int SPECTATOR_PORT = 32059;
 
-    private PokerCard[][] hand = new PokerCard[4][25];   // Everyone have 25 cards, remain 8 cards.
-    private PokerCard[] remainCards = new PokerCard[8];
-    private PokerDeck deck1;
-    private PokerDeck deck2;
+    private final TableManager tables;
 
     public PokerServer(int port) throws IOException {
-        super(port);
-        currentPlayer = 1;
+        this(port, new ServerConfig());
     }
 
-    protected void playerConnected(int playerID) {
-        sendToAll("player " + playerID + " join the room.");
-        if (playerID == 4) {
-            shutdownServerSocket();
-            sendToAll("*Game Begin*");
-            beginGame();                    //   Begin Game
-            sendToOne(1, hand[0]);
-            sendToOne(2, hand[1]);
-            sendToOne(3, hand[2]);
-            sendToOne(4, hand[3]);
-            sendToOne(currentPlayer, "your turn");
+    /**
+     * The config's codec is replaced by PokerCodec, which the game's messages need.
+     */
+    public PokerServer(int port, ServerConfig config) throws IOException {
+        this(port, config, null, null);
+    }
+
+    /**
+     * Journal the games in this directory, and first rebuild the games that
+     * were still in play when a server using it last stopped. Players are only
+     * accepted once that is done, so new ones never get a recovered seat's ID.
+     * @param journalDirectory null to play without a journal
+     * @param archiveDirectory where to keep the journal of finished games for
+     *                         GameReplay, or null to delete it
+     */
+    public PokerServer(int port, ServerConfig config, File journalDirectory, File archiveDirectory)
+            throws IOException {
+        super(port, new ServerConfig(config).setCodec(PokerCodec.create()), false);
+        if (journalDirectory == null) {
+            tables = new TableManager(this, Runtime.getRuntime().availableProcessors());
         }
+        else {
+            long start = System.nanoTime();
+            List<GameJournal.OpenTable> open = GameJournal.recover(journalDirectory);
+            GameJournal journal = new GameJournal(journalDirectory, archiveDirectory, JOURNAL_SEGMENT_SIZE,
+                    JOURNAL_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+            tables = new TableManager(this, Runtime.getRuntime().availableProcessors(), journal);
+            int restored = tables.restoreTables(open);
+            System.out.println("Recovered " + restored + " tables from the journal in "
+                    + (System.nanoTime() - start) / 1000000 + " ms.");
+        }
+        listen();
+    }
+
+    /**
+     * Let spectators watch the tables opened from now on, on their own port.
+     */
+    public SpectatorServer openSpectatorServer(int port, ServerConfig config) throws IOException {
+        SpectatorServer spectators = new SpectatorServer(port, config);
+        tables.setSpectators(spectators);
+        return spectators;
+    }
+
+    protected void playerConnected(int playerID) {
+        tables.playerConnected(playerID);
     }
 
     protected void playerDisconnected(int playerID) {
         System.out.println("player " + playerID + " quits.");
+        tables.playerLeft(playerID);
     }
 
     protected void messageReceived(int playerID, Object message) {
-        if (message instanceof PokerCard) {
-            PokerCard playCard = (PokerCard) message;
-            System.out.println("get card");
-            sendToAll("player " + playerID + " play: " + playCard.toString());
-            currentPlayer++;
-            if (currentPlayer > 4)
-                currentPlayer = 1;
-//            System.out.println("player " + playerID + " plays: " + message.toString());
-        }
-        else if (message instanceof PokerCard[]) {
-            hand[playerID] = (PokerCard[]) message;
-            int remainCards = statisticCards(hand[playerID]);
-            if (remainCards == 0)
-                sendToAll("*Game over* player " + playerID + " win!");
-            sendToOne(currentPlayer, "your turn");
-        }
-        else if (message instanceof String) {
+        if (message instanceof String)
             System.out.println((String)message);
-        }
+        else
+            tables.messageReceived(playerID, message);
     }
 
-//    private class CardComparator implements Comparator<PokerCard>, Serializable {
-//
-//        public int compare(PokerCard card1, PokerCard card2) {
-//
-//        }
-//    }
-
-    private int statisticCards(PokerCard[] handCards) {
-        int num = 0;
-        for (PokerCard c : handCards) {
-            if (c != null)
-                num++;
-        }
-
-        return num;
-    }
-
-    private void beginGame() {
-        deck1 = new PokerDeck();
-        deck2 = new PokerDeck();
-        deck1.shuffle();
-        deck2.shuffle();
-        PokerCard[] deck = new PokerCard[108];
-        for (int i = 0; i < 54; i++)
-            deck[i] = deck1.dealCard();
-        for (int i = 54; i < 108; i++)
-            deck[i] = deck2.dealCard();
-        for (int i = 0, k = 0; i < 4; i++) {
-            for (int j = 0; j < 25; j++) {
-                hand[i][j] = deck[k++];
-            }
-        }
-        for (int i = 100, j = 0; i < 108; i++)
-            remainCards[j++] = deck[i];
+    /* Plays may be sent as requests, to learn whether they were accepted. */
+    protected void requestReceived(int playerID, long requestID, Object message) {
+        if (message instanceof PlayMessage)
+            tables.requestReceived(playerID, requestID, message);
+        else
+            respondWithError(playerID, requestID, "Only plays can be sent as requests.");
     }
 
     public static void main(String[] args) {
         try {
-            PokerServer pokerServer = new PokerServer(32058);
+            ServerConfig config = new ServerConfig().setResumeGracePeriod(RESUME_GRACE_SECONDS, TimeUnit.SECONDS);
+            PokerServer pokerServer = new PokerServer(32058, config, new File("journal"),
+                    new File("journal-archive"));
+            pokerServer.openSpectatorServer(SPECTATOR_PORT, new ServerConfig());
         }
         catch (IOException e) {
             e.printStackTrace();
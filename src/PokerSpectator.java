@@ -0,0 +1,71 @@
+import networkcore.Client;
+import networkcore.ClientConfig;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Watches one table on a SpectatorServer and prints each view of it. Views
+ * may be skipped when the spectator falls behind, and the response to the
+ * WatchRequest can cross a newer view, so stale ones are dropped by version.
+ */
+public class PokerSpectator extends Client {
+
+    /* Guarded by this. */
+    private int tableID;
+    private int version = -1;   // Of the latest view printed.
+
+    public PokerSpectator(String hostIPAddress, int hostPort) throws IOException {
+        super(hostIPAddress, hostPort, new ClientConfig().setCodec(PokerCodec.create()));
+    }
+
+    /**
+     * Stop watching the current table, if any, and watch this one.
+     * @throws ExecutionException with a RequestFailedException if there is no such table
+     */
+    public void watch(int tableID) throws ExecutionException, InterruptedException {
+        synchronized (this) {
+            this.tableID = tableID;
+            version = -1;
+        }
+        messageReceived(request(new WatchRequest(tableID)).get());
+    }
+
+    protected synchronized void messageReceived(Object message) {
+        if (!(message instanceof TableView))
+            return;
+        TableView view = (TableView)message;
+        if (view.tableID != tableID)
+            return;     // Sent before we switched tables.
+        if (view.version <= version)
+            return;
+        version = view.version;
+        System.out.println(view);
+    }
+
+    protected void connectionClosedByError(String message) {
+        System.out.println(message);
+    }
+
+    protected void serverShutdown(String message) {
+        System.out.println(message);
+    }
+
+    /*
+     * Usage: PokerSpectator table
+     */
+    public static void main(String[] args) {
+        try {
+            PokerSpectator spectator = new PokerSpectator("192.168.43.124", 32059);
+            spectator.watch(Integer.parseInt(args[0]));
+        }
+        catch (ExecutionException e) {
+            System.out.println(e.getCause().getMessage());
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        catch (InterruptedException e) {
+        }
+    }
+}
@@ -0,0 +1,500 @@
+import networkcore.Server;
+import networkcore.TimerWheel;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * One game of four players. A table is an actor: events are posted to its
+ * mailbox from any thread and run one at a time on a worker of the
+ * TableManager pool, so the game state below needs no locking.
+ */
+public class PokerTable implements Runnable {
+
+    public static final int SEATS = 4;
+    public static final int HAND_SIZE = 25;         // Everyone have 25 cards, remain 8 cards.
+    private static final int EVENTS_PER_RUN = 32;   // Yield the worker after this many events.
+    private static final int RESYNC_TURNS = 16;     // Resend full hands after this many plays.
+    private static final int TURN_TIMEOUT_SECONDS = 30;   // A bot plays for a human who takes longer.
+    private static final int REJOIN_GRACE_SECONDS = 60;   // After a restart, a bot takes the seats not rejoined by then.
+
+    private final int tableID;
+    private final int[] seats;          // Player ID sitting in each seat.
+    private final int bucket;           // Lobby bucket the players were seated from.
+    private final long createdNanos;
+    private final Server server;
+    private final TableManager manager;
+    private final Executor executor;
+    private final GameJournal journal;  // Null if games are not journaled.
+    private final SpectatorServer spectators;  // Null if nobody can watch.
+    private final ConcurrentLinkedQueue<Event> mailbox = new ConcurrentLinkedQueue<Event>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /* Game state, only touched while this table is running on a worker. */
+    private final GameState game;
+    private final boolean[] botSeat = new boolean[SEATS];  // Seats whose player left; the BotEngine plays them.
+    private TimerWheel.Timeout turnTimer;
+    private long turnStartedNanos;
+    private int botPlayTurn = -1;       // The turn a bot play was asked for, or -1 if none is wanted.
+    private boolean finished;
+    private boolean restored;           // Rebuilt from the journal; resumes instead of dealing.
+    private final boolean[] awaitingRejoin = new boolean[SEATS];
+    private final long[] rejoinKeys = new long[SEATS];     // A RejoinRequest for a seat must carry its key.
+    private int viewVersion;
+    private int lastMoveSeat = -1;
+    private PlayMessage lastMove = PlayMessage.pass();
+
+    PokerTable(int tableID, int[] seats, int bucket, Server server, TableManager manager, Executor executor) {
+        this.tableID = tableID;
+        this.seats = seats.clone();
+        this.bucket = bucket;
+        createdNanos = System.nanoTime();
+        this.server = server;
+        this.manager = manager;
+        this.executor = executor;
+        journal = manager.getJournal();
+        spectators = manager.getSpectators();
+        game = new GameState(manager.getDealingEngine());
+    }
+
+    public int getTableID() {
+        return tableID;
+    }
+
+    public int[] getSeats() {
+        return seats.clone();
+    }
+
+    public int getBucket() {
+        return bucket;
+    }
+
+    /* Events, callable from any thread. */
+
+    void start() {
+        post(new Event(restored ? Event.RESUME : Event.START, 0, null));
+    }
+
+    /* A player reconnected after a restart and claims the seat of their old player ID. */
+    void rejoin(RejoinRequest request, int playerID) {
+        post(new Event(Event.REJOIN, playerID, request));
+    }
+
+    void messageReceived(int playerID, Object message) {
+        post(new Event(Event.MESSAGE, playerID, message));
+    }
+
+    /* A play sent with Client.request(): answered with the cards left, or refused with the reason. */
+    void requestReceived(int playerID, long requestID, Object message) {
+        post(new Event(Event.MESSAGE, playerID, message, 0, requestID));
+    }
+
+    void playerLeft(int playerID) {
+        post(new Event(Event.LEFT, playerID, null));
+    }
+
+    private void post(Event event) {
+        mailbox.add(event);
+        if (scheduled.compareAndSet(false, true))
+            executor.execute(this);
+    }
+
+    public void run() {
+        try {
+            Event event;
+            for (int i = 0; i < EVENTS_PER_RUN && (event = mailbox.poll()) != null; i++) {
+                try {
+                    handle(event);
+                }
+                catch (Exception e) {
+                    System.out.println("Error on table " + tableID + ".");
+                    e.printStackTrace();
+                }
+            }
+        }
+        finally {
+            scheduled.set(false);
+            if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true))
+                executor.execute(this);
+        }
+    }
+
+    private void handle(Event event) {
+        if (event.kind == Event.REJOIN) {
+            seatRejoined(event.playerID, (RejoinRequest) event.message);
+            return;
+        }
+        if (finished) {
+            if (event.requestID != 0)
+                server.respondWithError(event.playerID, event.requestID, "The game is over.");
+            return;
+        }
+        switch (event.kind) {
+            case Event.START:
+                beginGame();
+                break;
+            case Event.MESSAGE:
+                playReceived(event.playerID, event.message, event.requestID);
+                break;
+            case Event.LEFT:
+                seatLeft(event.playerID);
+                break;
+            case Event.BOT_PLAY:
+                botPlayReceived(event.playerID, (PlayMessage) event.message, event.turn);
+                break;
+            case Event.TIMEOUT:
+                turnTimedOut(event.turn);
+                break;
+            case Event.RESUME:
+                resumeGame();
+                break;
+            case Event.REJOIN_DEADLINE:
+                rejoinDeadline();
+                break;
+        }
+    }
+
+    /*
+     * Rebuild the game from its journal records before the table is started:
+     * deal again from the seed and replay every play through the same rules.
+     * The game goes on journaling where it left off. Returns false if the
+     * records don't make a valid game.
+     */
+    boolean restore(GameJournal.OpenTable record) {
+        game.start(manager.getDealingEngine(), record.seed);
+        for (int i = 0; i < record.plays.size(); i++) {
+            int seat = record.playSeats.get(i);
+            PlayMessage play = record.plays.get(i);
+            if (seat != game.getCurrentSeat() || game.applyPlay(seat, play) != GameState.ACCEPTED || game.getWinner() >= 0) {
+                System.out.println("Table " + tableID + " can't be restored: play " + i + " is not valid.");
+                return false;
+            }
+            lastMoveSeat = seat;
+            lastMove = play;
+        }
+        for (int seat = 0; seat < SEATS; seat++) {
+            botSeat[seat] = record.botSeats[seat];
+            awaitingRejoin[seat] = !botSeat[seat];
+            rejoinKeys[seat] = record.rejoinKeys[seat];
+        }
+        if (journal != null)
+            journal.tableRestored(record);
+        restored = true;
+        return true;
+    }
+
+    /* Nobody is connected yet: give the players time to rejoin, and carry on meanwhile. */
+    private void resumeGame() {
+        manager.schedule(new Runnable() {
+            public void run() {
+                post(new Event(Event.REJOIN_DEADLINE, 0, null));
+            }
+        }, REJOIN_GRACE_SECONDS, TimeUnit.SECONDS);
+        publishView();
+        turnStarted();
+    }
+
+    /* A wrong key gets the same answer as a seat that doesn't exist. */
+    private void seatRejoined(int playerID, RejoinRequest request) {
+        if (!server.isConnected(playerID))
+            return;
+        int oldPlayerID = request.playerID;
+        int seat = seatOf(oldPlayerID);
+        if (finished || seat < 0 || request.key != rejoinKeys[seat] || server.isConnected(oldPlayerID)) {
+            server.sendToOne(playerID, "There is no seat of player " + oldPlayerID + " to rejoin.");
+            manager.rejoinRefused(playerID);
+            return;
+        }
+        seats[seat] = playerID;
+        botSeat[seat] = false;
+        awaitingRejoin[seat] = false;
+        manager.seatRejoined(this, oldPlayerID, playerID);
+        if (journal != null)
+            journal.seatRejoined(tableID, seat, playerID);
+        server.sendToSome(seats, "player " + oldPlayerID + " rejoins as player " + playerID + ".");
+        publishView();
+        for (int other = 0; other < SEATS; other++)
+            server.sendToOne(playerID, "player " + seats[other] + " join the room.");
+        server.sendToOne(playerID, new RejoinKey(playerID, rejoinKeys[seat], seats.clone()));     // Same key, new ID.
+        server.sendToOne(playerID, game.getHand(seat));
+        if (game.getLastPlay() != CardRules.NONE)
+            server.sendToOne(playerID, "player " + seats[game.getLastPlaySeat()] + " played a "
+                    + CardRules.describe(game.getLastPlay()) + ".");
+        if (seat == game.getCurrentSeat()) {     // The player's turn again, even if a bot was about to play it.
+            cancelTurnTimer();
+            botPlayTurn = -1;
+            server.sendToOne(playerID, "your turn");
+            turnStarted();
+        }
+    }
+
+    private void rejoinDeadline() {
+        for (int seat = 0; seat < SEATS && !finished; seat++) {
+            if (awaitingRejoin[seat]) {
+                awaitingRejoin[seat] = false;
+                seatLeft(seats[seat]);
+            }
+        }
+    }
+
+    private void beginGame() {
+        if (!allSeatsConnected())
+            return;
+        for (int seat = 0; seat < SEATS; seat++)
+            server.sendToSome(seats, "player " + seats[seat] + " join the room.");
+        server.sendToSome(seats, "*Game Begin*");
+        manager.getDealPool().take(game.getDeal());
+        game.start();
+        for (int seat = 0; seat < SEATS; seat++)
+            rejoinKeys[seat] = manager.newRejoinKey();
+        if (journal != null)
+            journal.tableOpened(tableID, bucket, seats, game.getDeal().getSeed(), rejoinKeys);
+        int[] seating = seats.clone();      // Seats change hands when players quit or rejoin.
+        for (int seat = 0; seat < SEATS; seat++) {
+            server.sendToOne(seats[seat], new RejoinKey(seats[seat], rejoinKeys[seat], seating));
+            server.sendToOne(seats[seat], game.getHand(seat));
+        }
+        server.sendToOne(seats[game.getCurrentSeat()], "your turn");
+        publishView();
+        turnStarted();
+    }
+
+    /* A requestID of 0 means the message was just sent, and errors are sent back as Strings. */
+    private void playReceived(int playerID, Object message, long requestID) {
+        int seat = seatOf(playerID);
+        if (seat < 0 || botSeat[seat]) {
+            if (requestID != 0)
+                server.respondWithError(playerID, requestID, "You are not playing at this table.");
+            return;
+        }
+        if (message instanceof PlayMessage) {
+            if (seat != game.getCurrentSeat()) {
+                refuse(playerID, requestID, "It is not your turn.");
+                return;
+            }
+            PlayMessage play = (PlayMessage) message;
+            int result = makePlay(seat, play);
+            if (result != GameState.ACCEPTED) {
+                refuse(playerID, requestID, game.refusalReason(result, play));
+                if (result == GameState.NOT_IN_HAND)
+                    server.sendToOne(playerID, game.getHand(seat));     // The player's copy is out of date.
+            }
+            else if (requestID != 0)
+                server.respond(playerID, requestID, game.getHand(seat).size());
+        }
+        else if (message instanceof String) {
+            System.out.println("table " + tableID + ", player " + playerID + ": " + message);
+        }
+    }
+
+    private void refuse(int playerID, long requestID, String reason) {
+        if (requestID == 0)
+            server.sendToOne(playerID, reason);
+        else
+            server.respondWithError(playerID, requestID, reason);
+    }
+
+    /* A play chosen by the bot engine for the current seat. */
+    private void botPlayReceived(int seat, PlayMessage play, int turn) {
+        if (turn != botPlayTurn || turn != game.getTurns() || seat != game.getCurrentSeat())
+            return;     // Stale: the human played in time after all, or took the seat back.
+        botPlayTurn = -1;
+        if (makePlay(seat, play) != GameState.ACCEPTED) {
+            int lowest = game.getHand(seat).nextCode(0);
+            makePlay(seat, game.getLastPlay() == CardRules.NONE ? new PlayMessage(lowest) : PlayMessage.pass());
+        }
+    }
+
+    /*
+     * Check and apply a play of the current seat, then tell the table. Returns
+     * the result of GameState.applyPlay().
+     */
+    private int makePlay(int seat, PlayMessage play) {
+        int playerID = seats[seat];
+        int turn = game.getTurns();
+        int result = game.applyPlay(seat, play);
+        if (result != GameState.ACCEPTED)
+            return result;
+        cancelTurnTimer();
+        lastMoveSeat = seat;
+        lastMove = play;
+        if (journal != null)
+            journal.played(tableID, turn, seat, play,
+                    (int)Math.min(Integer.MAX_VALUE, (System.nanoTime() - turnStartedNanos) / 1000000));
+        if (game.getWinner() == seat) {
+            server.sendToSome(seats, new HandDelta(playerID, play, 0, playerID));
+            finish("*Game over* player " + playerID + " win!");
+            return GameState.ACCEPTED;
+        }
+        server.sendToSome(seats, new HandDelta(playerID, play, game.getHand(seat).size(), seats[game.getCurrentSeat()]));
+        publishView();
+        if (game.getTurns() % RESYNC_TURNS == 0) {
+            for (int i = 0; i < SEATS; i++) {
+                if (!botSeat[i])
+                    server.sendToOne(seats[i], game.getHand(i));
+            }
+        }
+        turnStarted();
+        return GameState.ACCEPTED;
+    }
+
+    /* The turn has passed to the current seat: let the bot move, or start the human's clock. */
+    private void turnStarted() {
+        turnStartedNanos = System.nanoTime();
+        if (botSeat[game.getCurrentSeat()]) {
+            requestBotPlay(game.getCurrentSeat());
+            return;
+        }
+        final int turn = game.getTurns();
+        turnTimer = manager.schedule(new Runnable() {
+            public void run() {
+                post(new Event(Event.TIMEOUT, 0, null, turn));
+            }
+        }, TURN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void turnTimedOut(int turn) {
+        if (turn != game.getTurns() || botSeat[game.getCurrentSeat()])
+            return;
+        server.sendToSome(seats, "player " + seats[game.getCurrentSeat()] + " ran out of time.");
+        requestBotPlay(game.getCurrentSeat());
+    }
+
+    private void requestBotPlay(final int seat) {
+        int[] cardsLeft = new int[SEATS];
+        int[] unseen = new int[CardRules.RANKS];
+        for (int i = 0; i < SEATS; i++) {
+            int other = (seat + i) % SEATS;
+            cardsLeft[i] = game.getHand(other).size();
+            if (i > 0)
+                BotEngine.addRankCounts(game.getHand(other), unseen);
+        }
+        BotEngine.addRankCounts(game.getDeal().getKitty(), unseen);
+        BotEngine.Position position = new BotEngine.Position(game.getHand(seat), cardsLeft, unseen, game.getLastPlay(),
+                (game.getLastPlaySeat() - seat + SEATS) % SEATS);
+        final int turn = game.getTurns();
+        botPlayTurn = turn;
+        manager.getBotEngine().choosePlay(position).thenAccept(new Consumer<PlayMessage>() {
+            public void accept(PlayMessage play) {
+                post(new Event(Event.BOT_PLAY, seat, play, turn));
+            }
+        });
+    }
+
+    /* A player left in the middle of the game: a bot plays their seat from now on. */
+    private void seatLeft(int playerID) {
+        int seat = seatOf(playerID);
+        if (seat < 0 || botSeat[seat])
+            return;
+        botSeat[seat] = true;
+        awaitingRejoin[seat] = false;
+        if (journal != null)
+            journal.seatToBot(tableID, seat);
+        int humans = 0;
+        for (boolean bot : botSeat) {
+            if (!bot)
+                humans++;
+        }
+        if (humans == 0) {
+            finish("*Game over* player " + playerID + " quits.");
+            return;
+        }
+        server.sendToSome(seats, "player " + playerID + " quits, a bot takes the seat.");
+        if (seat == game.getCurrentSeat()) {
+            cancelTurnTimer();
+            requestBotPlay(seat);
+        }
+    }
+
+    private void cancelTurnTimer() {
+        if (turnTimer != null) {
+            turnTimer.cancel();
+            turnTimer = null;
+        }
+    }
+
+    /*
+     * A seat dropped between seating and the deal: give up this table and send
+     * the others back to the lobby instead of starting a game that can't finish.
+     */
+    private boolean allSeatsConnected() {
+        int[] remaining = new int[SEATS];
+        int count = 0;
+        for (int playerID : seats) {
+            if (server.isConnected(playerID))
+                remaining[count++] = playerID;
+        }
+        if (count == SEATS)
+            return true;
+        finished = true;
+        int[] requeued = new int[count];
+        System.arraycopy(remaining, 0, requeued, 0, count);
+        manager.tableAbandoned(this, requeued, createdNanos);
+        return false;
+    }
+
+    private void finish(String result) {
+        finished = true;
+        cancelTurnTimer();
+        if (journal != null)
+            journal.gameOver(tableID);
+        server.sendToSome(seats, result);
+        publishView();
+        manager.tableFinished(this);
+    }
+
+    /* Hand what spectators may see of the table, after every change, to the spectator tier. */
+    private void publishView() {
+        if (spectators == null)
+            return;
+        int[] cardsLeft = new int[SEATS];
+        for (int seat = 0; seat < SEATS; seat++)
+            cardsLeft[seat] = game.getHand(seat).size();
+        spectators.tableChanged(new TableView(tableID, ++viewVersion, seats.clone(), cardsLeft, lastMoveSeat, lastMove,
+                game.getCurrentSeat(), game.getWinner(), finished));
+    }
+
+    private int seatOf(int playerID) {
+        for (int seat = 0; seat < SEATS; seat++) {
+            if (seats[seat] == playerID)
+                return seat;
+        }
+        return -1;
+    }
+
+    private static class Event {
+        static final int START = 0;
+        static final int MESSAGE = 1;
+        static final int LEFT = 2;
+        static final int BOT_PLAY = 3;
+        static final int TIMEOUT = 4;
+        static final int RESUME = 5;
+        static final int REJOIN = 6;            // message: the RejoinRequest.
+        static final int REJOIN_DEADLINE = 7;
+
+        final int kind;
+        final int playerID;     // For BOT_PLAY: the seat.
+        final Object message;
+        final int turn;         // For BOT_PLAY and TIMEOUT: the turn they were started for.
+        final long requestID;   // For MESSAGE: nonzero if it must be answered.
+
+        Event(int kind, int playerID, Object message) {
+            this(kind, playerID, message, 0);
+        }
+
+        Event(int kind, int playerID, Object message, int turn) {
+            this(kind, playerID, message, turn, 0);
+        }
+
+        Event(int kind, int playerID, Object message, int turn, long requestID) {
+            this.kind = kind;
+            this.playerID = playerID;
+            this.message = message;
+            this.turn = turn;
+            this.requestID = requestID;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+import java.io.Serializable;
+
+/**
+ * Sent to each player when their game begins. The key stays with the seat
+ * for the rest of the game: a player who reconnects after a restart must
+ * send it in their RejoinRequest to take the seat back. It also carries the
+ * player ID at each seat, in seating order.
+ */
+public class RejoinKey implements Serializable {
+
+    public final int playerID;      // Whose seat it is.
+    public final long key;
+    public final int[] seats;       // Player IDs by seat.
+
+    public RejoinKey(int playerID, long key, int[] seats) {
+        this.playerID = playerID;
+        this.key = key;
+        this.seats = seats;
+    }
+
+    public String toString() {
+        return "rejoin key " + Long.toHexString(key) + " for player " + playerID;
+    }
+}
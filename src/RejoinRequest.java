@@ -0,0 +1,21 @@
+import java.io.Serializable;
+
+/**
+ * Sent by a player who reconnected after the server restarted, instead of a
+ * JoinRequest: it asks for the seat the player had under their old player ID
+ * in a game the server recovered from its journal.
+ */
+public class RejoinRequest implements Serializable {
+
+    public final int playerID;      // The player's ID before the restart.
+    public final long key;          // From the RejoinKey the player got when the game began.
+
+    public RejoinRequest(int playerID, long key) {
+        this.playerID = playerID;
+        this.key = key;
+    }
+
+    public String toString() {
+        return "rejoin as player " + playerID;
+    }
+}
@@ -0,0 +1,56 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Throughput check of GameReplay: journals greedy self-play games into a
+ * directory unless it already holds segments, then replays it and prints the
+ * stats and plays per minute.
+ * Usage: ReplayBenchmark [directory] [games] [threads]
+ */
+public class ReplayBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File directory = new File(args.length > 0 ? args[0] : "replay-check");
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        DealingEngine engine = new DealingEngine(2, PokerTable.SEATS, PokerTable.HAND_SIZE,
+                DealingEngine.RandomSource.SPLITTABLE);
+        if (GameJournal.segmentFiles(directory).isEmpty()) {
+            GameJournal journal = new GameJournal(directory, 1 << 24, 10, TimeUnit.MILLISECONDS);
+            GameState game = new GameState(engine);
+            int[] seats = new int[PokerTable.SEATS];
+            long[] rejoinKeys = new long[PokerTable.SEATS];
+            int[] counts = new int[CardRules.RANKS];
+            int[] cardsLeft = new int[PokerTable.SEATS];
+            for (int table = 1; table <= games; table++) {
+                engine.deal(game.getDeal());
+                game.start();
+                journal.tableOpened(table, 0, seats, game.getDeal().getSeed(), rejoinKeys);
+                while (game.getWinner() < 0) {
+                    int seat = game.getCurrentSeat();
+                    Arrays.fill(counts, 0);
+                    BotEngine.addRankCounts(game.getHand(seat), counts);
+                    PlayMessage play = new BotEngine.Position(game.getHand(seat), cardsLeft, counts,
+                            game.getLastPlay(), 0).toPlay(BotEngine.greedyMove(counts, game.getLastPlay()));
+                    int turn = game.getTurns();
+                    game.applyPlay(seat, play);
+                    journal.played(table, turn, seat, play, 500 + (turn * 7919) % 5000);
+                }
+                journal.gameOver(table);
+            }
+            journal.close();
+        }
+        long start = System.nanoTime();
+        GameReplay.Stats stats = new GameReplay(engine, threads).replay(new Supplier<GameReplay.Stats>() {
+            public GameReplay.Stats get() {
+                return new GameReplay.Stats();
+            }
+        }, directory);
+        long nanos = System.nanoTime() - start;
+        System.out.println(stats);
+        System.out.println("Replayed " + stats.getPlays() + " plays on " + threads + " threads in " + nanos / 1000000
+                + " ms: " + (long)(stats.getPlays() / (nanos / 6e10)) + " plays/minute.");
+    }
+}
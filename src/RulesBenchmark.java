@@ -0,0 +1,100 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Rough throughput check of CardRules: classifies and compares a fixed mix of
+ * plays on one core for a few seconds and prints plays/sec. With "check",
+ * compares classify() against classifyBySorting() instead.
+ * Usage: RulesBenchmark [milliseconds] | RulesBenchmark check [random plays]
+ */
+public class RulesBenchmark {
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("check")) {
+            check(args.length > 1 ? Integer.parseInt(args[1]) : 2000000);
+            return;
+        }
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 3000;
+        PlayMessage[] plays = {
+                new PlayMessage(0), new PlayMessage(4, 5), new PlayMessage(8, 9, 10),
+                new PlayMessage(4, 8, 12, 16, 20, 24), new PlayMessage(4, 5, 8, 9, 12, 13),
+                new PlayMessage(20, 21, 22, 23, 20), new PlayMessage(52, 52, 53, 53), new PlayMessage(0, 8)
+        };
+        int previous = CardRules.NONE;
+        long count = 0;
+        int beaten = 0;
+        long end = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < end) {
+            for (int i = 0; i < 100000; i++) {
+                int play = CardRules.classify(plays[i & 7]);
+                if (CardRules.beats(play, previous))
+                    beaten++;
+                previous = play == CardRules.INVALID ? CardRules.NONE : play;
+            }
+            count += 100000;
+        }
+        System.out.println((long)(count * 1000.0 / millis) + " plays/sec (" + beaten + " beat the previous play).");
+    }
+
+    /*
+     * Every set of ranks with one and with two cards of each, every count of a
+     * single rank, then random plays of up to 11 cards, many of them close in
+     * rank. Prints the first few plays the two classifiers disagree on.
+     */
+    private static void check(int randomPlays) {
+        long checked = 0;
+        int wrong = 0;
+        for (int mask = 1; mask < 1 << CardRules.RANKS; mask++) {
+            for (int copies = 1; copies <= 2; copies++) {
+                int[] codes = new int[Integer.bitCount(mask) * copies];
+                int next = 0;
+                for (int rank = 0; rank < CardRules.RANKS; rank++) {
+                    for (int copy = 0; copy < copies && (mask & 1 << rank) != 0; copy++)
+                        codes[next++] = codeOfRank(rank, copy);
+                }
+                wrong += checkPlay(codes, wrong);
+                checked++;
+            }
+        }
+        for (int rank = 0; rank < CardRules.RANKS; rank++) {
+            for (int count = 1; count <= 9; count++) {
+                int[] codes = new int[count];
+                for (int i = 0; i < count; i++)
+                    codes[i] = codeOfRank(rank, i);
+                wrong += checkPlay(codes, wrong);
+                checked++;
+            }
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < randomPlays; i++) {
+            int[] codes = new int[random.nextInt(12)];
+            int near = random.nextInt(PokerCard.CARD_CODES);
+            for (int j = 0; j < codes.length; j++)
+                codes[j] = random.nextBoolean() ? random.nextInt(PokerCard.CARD_CODES)
+                        : Math.min(PokerCard.CARD_CODES - 1, near + random.nextInt(8));
+            wrong += checkPlay(codes, wrong);
+            checked++;
+        }
+        System.out.println("Checked " + checked + " plays against classifyBySorting(): " + wrong + " differ.");
+    }
+
+    private static int checkPlay(int[] codes, int wrongSoFar) {
+        int play = CardRules.classify(new PlayMessage(codes));
+        int expected = CardRules.classifyBySorting(codes);
+        if (play == expected)
+            return 0;
+        if (wrongSoFar < 10)
+            System.out.println(Arrays.toString(codes) + ": " + CardRules.describe(play) + " " + play
+                    + ", expected " + CardRules.describe(expected) + " " + expected);
+        return 1;
+    }
+
+    /* A card of the rank; copies beyond the four suits repeat them, as the second deck does. */
+    private static int codeOfRank(int rank, int copy) {
+        int first = 0;
+        while (CardRules.rankOfCode(first) != rank)
+            first++;
+        int code = first + copy % 4;
+        return code < PokerCard.CARD_CODES && CardRules.rankOfCode(code) == rank ? code : first;    // One joker each.
+    }
+}
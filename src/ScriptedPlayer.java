@@ -0,0 +1,188 @@
+import networkcore.Client;
+import networkcore.ClientConfig;
+import networkcore.RequestFailedException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A headless player that plays its own moves, for running whole games without
+ * humans, e.g. in SelfPlaySimulator. It follows the game from the messages any
+ * PokerPlayer gets and moves like a bot: greedily, or with a BotEngine search
+ * when given one.
+ *
+ * It owns its Client rather than extending it, so all of its state is ready
+ * before the first message can arrive.
+ */
+public class ScriptedPlayer {
+
+    /**
+     * Told once the game this player sat at is over.
+     */
+    public interface GameOverListener {
+        void gameOver(ScriptedPlayer player, String result);
+    }
+
+    private final BotEngine engine;     // Null to play greedily.
+    private final GameOverListener listener;
+    private Client client;
+
+    /* Game state, only touched by the thread delivering messages. */
+    private Hand hand;
+    private final int[] seats = new int[PokerTable.SEATS];
+    private int seatCount;
+    private final int[] cardsLeft = new int[PokerTable.SEATS];
+    private final int[] unseen = new int[CardRules.RANKS];
+    private int lastPlay = CardRules.NONE;
+    private int lastPlaySeat = -1;
+    private int plays;
+    private int rejectedPlays;
+
+    /**
+     * The config's codec is replaced by PokerCodec.
+     * @param engine searches for moves, or null to play greedily
+     */
+    public ScriptedPlayer(String hostIPAddress, int hostPort, ClientConfig config, BotEngine engine,
+                          GameOverListener listener) throws IOException {
+        this.engine = engine;
+        this.listener = listener;
+        client = new Client(hostIPAddress, hostPort, config.setCodec(PokerCodec.create())) {
+            protected void messageReceived(Object message) {
+                ScriptedPlayer.this.messageReceived(this, message);
+            }
+        };
+        client.send(new JoinRequest());
+    }
+
+    public int getID() {
+        return client.getID();
+    }
+
+    public void disconnect() {
+        client.disconnect();
+    }
+
+    /*
+     * Send a play as a request. A refusal is answered on the thread delivering
+     * messages, so the fallback sees the same state as every other handler.
+     */
+    private void play(PlayMessage play) {
+        client.request(play).whenComplete(new BiConsumer<Object, Throwable>() {
+            public void accept(Object cardsLeft, Throwable error) {
+                if (error instanceof RequestFailedException) {
+                    rejectedPlays++;
+                    play(lastPlay == CardRules.NONE ? new PlayMessage(hand.nextCode(0)) : PlayMessage.pass());
+                }
+                else if (error != null)
+                    System.out.println("Player " + getID() + " got no answer to a play: " + error);
+            }
+        });
+    }
+
+    /* Plays this player made; read it after the game is over. */
+    public int getPlays() {
+        return plays;
+    }
+
+    /* Plays the server refused; more than zero means this player lost track of the game. */
+    public int getRejectedPlays() {
+        return rejectedPlays;
+    }
+
+    private void messageReceived(Client from, Object message) {
+        client = from;      // Messages can arrive before the constructor has stored it.
+        if (message instanceof HandDelta)
+            deltaReceived((HandDelta)message);
+        else if (message instanceof Hand)
+            handReceived((Hand)message);
+        else if ("your turn".equals(message))
+            move();
+        else if (message instanceof RejoinKey)
+            seated((RejoinKey)message);
+        else if ("*Game Begin*".equals(message)) {
+            hand = null;
+            lastPlay = CardRules.NONE;
+            lastPlaySeat = -1;
+        }
+        else if (message instanceof String && ((String)message).startsWith("*Game over*")) {
+            if (listener != null)
+                listener.gameOver(this, (String)message);
+        }
+    }
+
+    /* The key comes before the hand and carries the seating. */
+    private void seated(RejoinKey key) {
+        seatCount = Math.min(key.seats.length, PokerTable.SEATS);
+        System.arraycopy(key.seats, 0, seats, 0, seatCount);
+    }
+
+    private void handReceived(Hand dealt) {
+        if (hand == null) {
+            Arrays.fill(unseen, 0);
+            for (int code = 0; code < PokerCard.CARD_CODES; code++)
+                unseen[CardRules.rankOfCode(code)] += 2;       // Two decks.
+            int[] own = new int[CardRules.RANKS];
+            BotEngine.addRankCounts(dealt, own);
+            for (int rank = 0; rank < CardRules.RANKS; rank++)
+                unseen[rank] -= own[rank];
+            for (int seat = 0; seat < PokerTable.SEATS; seat++)
+                cardsLeft[seat] = PokerTable.HAND_SIZE;
+        }
+        hand = dealt;   // Full state from the server, replaces our copy.
+    }
+
+    private void deltaReceived(HandDelta delta) {
+        int seat = seatOf(delta.playerID);
+        if (seat < 0 || hand == null)
+            return;
+        cardsLeft[seat] = delta.cardsLeft;
+        if (!delta.play.isPass()) {
+            lastPlay = CardRules.classify(delta.play);
+            lastPlaySeat = seat;
+            if (delta.playerID == getID())
+                delta.applyTo(hand);
+            else {
+                for (int i = 0; i < delta.play.getCardCount(); i++)
+                    unseen[CardRules.rankOfCode(delta.play.getCode(i))]--;
+            }
+        }
+        if (lastPlaySeat >= 0 && delta.nextPlayerID == seats[lastPlaySeat])
+            lastPlay = CardRules.NONE;      // Everyone else passed.
+        if (delta.nextPlayerID == getID() && delta.cardsLeft > 0)
+            move();
+    }
+
+    private void move() {
+        int mySeat = seatOf(getID());
+        if (hand == null || mySeat < 0)
+            return;
+        int[] relativeCardsLeft = new int[PokerTable.SEATS];
+        for (int i = 0; i < PokerTable.SEATS; i++)
+            relativeCardsLeft[i] = cardsLeft[(mySeat + i) % PokerTable.SEATS];
+        relativeCardsLeft[0] = hand.size();
+        int lastPlayer = lastPlaySeat < 0 ? 0 : (lastPlaySeat - mySeat + PokerTable.SEATS) % PokerTable.SEATS;
+        BotEngine.Position position = new BotEngine.Position(hand, relativeCardsLeft, unseen, lastPlay, lastPlayer);
+        plays++;
+        if (engine == null) {
+            int[] counts = new int[CardRules.RANKS];
+            BotEngine.addRankCounts(hand, counts);
+            play(position.toPlay(BotEngine.greedyMove(counts, lastPlay)));
+            return;
+        }
+        engine.choosePlay(position).thenAccept(new Consumer<PlayMessage>() {
+            public void accept(PlayMessage move) {
+                play(move);
+            }
+        });
+    }
+
+    private int seatOf(int playerID) {
+        for (int seat = 0; seat < seatCount; seat++) {
+            if (seats[seat] == playerID)
+                return seat;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,86 @@
+import bench.Benchmarks;
+import networkcore.ClientConfig;
+import networkcore.ServerConfig;
+import networkcore.Transport;
+
+import java.io.PrintStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs whole PokerServer games in this JVM with ScriptedPlayers on the LOOPBACK
+ * transport and reports games/sec. Every player leaves when its game is over
+ * and a new one connects, so the lobby keeps the same number of tables busy.
+ *
+ * Usage: SelfPlaySimulator [games] [tables] [bot strength, 0 plays greedily]
+ */
+public class SelfPlaySimulator implements ScriptedPlayer.GameOverListener {
+
+    private static final int PORT = 32058;
+
+    private final int games;
+    private final BotEngine engine;
+    private final ClientConfig clientConfig = new ClientConfig().setTransport(Transport.LOOPBACK);
+    private final LinkedBlockingQueue<ScriptedPlayer> finishedPlayers = new LinkedBlockingQueue<ScriptedPlayer>();
+    private final AtomicInteger results = new AtomicInteger();
+    private final AtomicInteger plays = new AtomicInteger();
+    private final AtomicInteger rejectedPlays = new AtomicInteger();
+
+    public SelfPlaySimulator(int games, BotEngine engine) {
+        this.games = games;
+        this.engine = engine;
+    }
+
+    public void gameOver(ScriptedPlayer player, String result) {
+        plays.addAndGet(player.getPlays());
+        rejectedPlays.addAndGet(player.getRejectedPlays());
+        results.incrementAndGet();
+        finishedPlayers.add(player);
+    }
+
+    /**
+     * Play the games with this many tables at once; returns the elapsed nanos,
+     * or -1 if the games stopped making progress.
+     */
+    public long run(int tables) throws Exception {
+        int players = games * PokerTable.SEATS;
+        int connected = 0;
+        long start = System.nanoTime();
+        for (; connected < Math.min(players, tables * PokerTable.SEATS); connected++)
+            new ScriptedPlayer("localhost", PORT, clientConfig, engine, this);
+        for (int left = players; left > 0; left--) {
+            ScriptedPlayer finished = finishedPlayers.poll(30, TimeUnit.SECONDS);
+            if (finished == null)
+                return -1;
+            finished.disconnect();
+            if (connected < players) {
+                new ScriptedPlayer("localhost", PORT, clientConfig, engine, this);
+                connected++;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int tables = args.length > 1 ? Integer.parseInt(args[1]) : 4 * Runtime.getRuntime().availableProcessors();
+        int strength = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        PrintStream console = Benchmarks.silenceConsole();
+        PokerServer server = new PokerServer(PORT, new ServerConfig().setTransport(Transport.LOOPBACK));
+        BotEngine engine = strength == 0 ? null
+                : new BotEngine(Runtime.getRuntime().availableProcessors(), 50, TimeUnit.MILLISECONDS, strength);
+        SelfPlaySimulator simulator = new SelfPlaySimulator(games, engine);
+        long nanos = simulator.run(tables);
+        if (nanos < 0) {
+            console.println("Stalled after " + simulator.results.get() / PokerTable.SEATS + " games.");
+            System.exit(1);
+        }
+        double seconds = nanos / 1e9;
+        console.println(games + " games at " + tables + " tables in " + String.format("%.2f", seconds) + " s: "
+                + (long)(games / seconds) + " games/sec, " + simulator.plays.get() / games + " plays per game, "
+                + simulator.rejectedPlays.get() + " refused plays.");
+        console.println("Server: " + server.getStats());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,80 @@
+import bench.Benchmarks;
+import networkcore.Client;
+import networkcore.ClientConfig;
+import networkcore.ServerConfig;
+import networkcore.Transport;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fan-out check of the SpectatorServer on the LOOPBACK transport: one table
+ * publishes a view every interval to many spectators. Prints what
+ * tableChanged() costs the table, which should not grow with the number of
+ * watchers, and how many views the spectators got or skipped.
+ * Usage: SpectatorBenchmark [watchers] [views] [interval in microseconds]
+ */
+public class SpectatorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int watcherCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int views = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        long intervalNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 2 ? Integer.parseInt(args[2]) : 1000);
+        int port = 32059;
+        PrintStream console = Benchmarks.silenceConsole();
+        SpectatorServer server = new SpectatorServer(port, new ServerConfig().setTransport(Transport.LOOPBACK)
+                .setOutgoingQueueCapacity(16));
+        int[] seats = {1, 2, 3, 4};
+        server.tableChanged(new TableView(1, 0, seats, new int[] {25, 25, 25, 25}, -1, PlayMessage.pass(), 0, -1, false));
+        final AtomicLong received = new AtomicLong();
+        ClientConfig config = new ClientConfig().setTransport(Transport.LOOPBACK).setCodec(PokerCodec.create());
+        List<Client> watchers = new ArrayList<Client>();
+        for (int i = 0; i < watcherCount; i++) {
+            Client watcher = new Client("localhost", port, config) {
+                protected void messageReceived(Object message) {
+                    received.incrementAndGet();
+                }
+            };
+            watcher.request(new WatchRequest(1)).get();
+            watchers.add(watcher);
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long slowest = 0;
+        long tableNanos = 0;
+        long tableCpuNanos = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        for (int version = 1; version <= views; version++) {
+            long before = System.nanoTime();
+            server.tableChanged(new TableView(1, version, seats, new int[] {25, 25, 25, 25}, version % 4,
+                    new PlayMessage(version % 54), (version + 1) % 4, -1, false));
+            long took = System.nanoTime() - before;
+            tableNanos += took;
+            slowest = Math.max(slowest, took);
+            LockSupport.parkNanos(start + version * intervalNanos - System.nanoTime());
+        }
+        tableCpuNanos = threads.getCurrentThreadCpuTime() - tableCpuNanos;     // Waking from the parks included.
+        server.tableChanged(new TableView(1, views + 1, seats, new int[] {0, 25, 25, 25}, 0, PlayMessage.pass(), 0, 0, true));
+        long total = (long)watcherCount * (views + 1);
+        long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (server.getWatchers(1) > 0) {
+            if (System.nanoTime() > waitUntil)
+                break;
+            Thread.sleep(10);
+        }
+        Thread.sleep(500);
+        long elapsed = System.nanoTime() - start;
+        console.println(watcherCount + " watchers, " + (views + 1) + " views: tableChanged() took "
+                + tableNanos / views + " ns on average, " + slowest / 1000 + " us at most; the table thread used "
+                + tableCpuNanos / views + " ns of CPU per view.");
+        console.println("Spectators got " + received.get() + " of " + total + " views ("
+                + String.format("%.1f", 100.0 * received.get() / total) + "%) in " + elapsed / 1000000 + " ms; "
+                + server.getStats());
+        System.exit(0);
+    }
+}
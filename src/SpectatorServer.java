@@ -0,0 +1,176 @@
+import networkcore.OverflowPolicy;
+import networkcore.Server;
+import networkcore.ServerConfig;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The broadcast tier for spectators. It listens on a port of its own, so
+ * spectators never share queues, lanes or membership updates with the
+ * players of the PokerServer. A spectator is any Client using PokerCodec: it
+ * sends a WatchRequest with Client.request(), gets the table's current
+ * TableView back, and then a new view after every change. Spectators can't
+ * send anything else.
+ *
+ * Tables hand their views to tableChanged(), which only swaps a reference, so
+ * watchers cost the players nothing. A single broadcaster thread encodes each
+ * view once and queues the same frame to every watcher of the table. A table
+ * that changes again before its view goes out only sends the newer one, and
+ * spectator queues conflate views of the same table, so a slow spectator skips
+ * ahead to the latest state instead of falling behind.
+ */
+public class SpectatorServer extends Server {
+
+    private final ConcurrentHashMap<Integer, Watched> tables = new ConcurrentHashMap<Integer, Watched>();
+    private final ConcurrentHashMap<Integer, Integer> watching = new ConcurrentHashMap<Integer, Integer>();   // Spectator to table ID.
+    private final ExecutorService broadcaster = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "spectator-broadcast");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public SpectatorServer(int port) throws IOException {
+        this(port, new ServerConfig());
+    }
+
+    /**
+     * Uses a copy of the config with the codec replaced by PokerCodec, the
+     * overflow policy by CONFLATE, and membership updates turned off.
+     */
+    public SpectatorServer(int port, ServerConfig config) throws IOException {
+        super(port, new ServerConfig(config).setCodec(PokerCodec.create()).setOverflowPolicy(OverflowPolicy.CONFLATE)
+                .setMembershipUpdates(false), false);
+        listen();   // Once the fields above are set.
+    }
+
+    /**
+     * The latest view of a table; callable from any thread, and never blocks.
+     * A table's views must be handed over in order, as its actor does.
+     */
+    public void tableChanged(TableView view) {
+        Watched table = tables.get(view.tableID);
+        if (table == null) {
+            Watched added = new Watched(view.tableID);
+            table = tables.putIfAbsent(view.tableID, added);
+            if (table == null)
+                table = added;
+        }
+        table.changed(view);
+    }
+
+    /**
+     * Number of spectators watching a table.
+     */
+    public int getWatchers(int tableID) {
+        Watched table = tables.get(tableID);
+        return table == null ? 0 : table.watchers.length;
+    }
+
+    protected void messageReceived(int spectatorID, Object message) {
+        // Spectators only watch.
+    }
+
+    protected void requestReceived(int spectatorID, long requestID, Object message) {
+        if (!(message instanceof WatchRequest)) {
+            respondWithError(spectatorID, requestID, "Spectators can only watch tables.");
+            return;
+        }
+        int tableID = ((WatchRequest)message).tableID;
+        Watched table = tables.get(tableID);
+        if (table == null) {
+            respondWithError(spectatorID, requestID, "There is no table " + tableID + " to watch.");
+            return;
+        }
+        stopWatching(spectatorID);
+        watching.put(spectatorID, tableID);
+        table.add(spectatorID);
+        respond(spectatorID, requestID, table.latest);
+    }
+
+    protected void playerDisconnected(int spectatorID) {
+        stopWatching(spectatorID);
+    }
+
+    protected boolean isCritical(Object message) {
+        return !(message instanceof TableView) && super.isCritical(message);
+    }
+
+    protected Object conflationKey(Object message) {
+        if (message instanceof TableView)
+            return ((TableView)message).tableID;
+        return super.conflationKey(message);
+    }
+
+    private void stopWatching(int spectatorID) {
+        Integer tableID = watching.remove(spectatorID);
+        if (tableID == null)
+            return;
+        Watched table = tables.get(tableID);
+        if (table != null)
+            table.remove(spectatorID);
+    }
+
+    /* One table: its watchers, and the view waiting for the broadcaster. */
+    private class Watched implements Runnable {
+
+        final int tableID;
+        volatile TableView latest;
+        volatile int[] watchers = new int[0];   // Sorted. Replaced, never changed in place.
+        private final AtomicReference<TableView> unsent = new AtomicReference<TableView>();
+
+        Watched(int tableID) {
+            this.tableID = tableID;
+        }
+
+        void changed(TableView view) {
+            latest = view;
+            if (unsent.getAndSet(view) == null)
+                broadcaster.execute(this);
+        }
+
+        /* Send the newest view once; a finished table is forgotten after its last one. */
+        public void run() {
+            TableView view = unsent.getAndSet(null);
+            int[] to = watchers;
+            if (to.length > 0)
+                sendToSome(to, view);
+            if (view.over) {
+                tables.remove(tableID, this);
+                for (int spectatorID : to)
+                    watching.remove(spectatorID, tableID);
+            }
+        }
+
+        synchronized void add(int spectatorID) {
+            int[] old = watchers;
+            int index = Arrays.binarySearch(old, spectatorID);
+            if (index >= 0)
+                return;
+            int insert = -index - 1;
+            int[] added = new int[old.length + 1];
+            System.arraycopy(old, 0, added, 0, insert);
+            added[insert] = spectatorID;
+            System.arraycopy(old, insert, added, insert + 1, old.length - insert);
+            watchers = added;
+        }
+
+        synchronized void remove(int spectatorID) {
+            int[] old = watchers;
+            int index = Arrays.binarySearch(old, spectatorID);
+            if (index < 0)
+                return;
+            int[] removed = new int[old.length - 1];
+            System.arraycopy(old, 0, removed, 0, index);
+            System.arraycopy(old, index + 1, removed, index, removed.length - index);
+            watchers = removed;
+        }
+    }
+}
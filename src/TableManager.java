@@ -0,0 +1,257 @@
+import networkcore.Server;
+import networkcore.TimerWheel;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts any number of independent PokerTables in one server. Players who
+ * send a JoinRequest wait in a Lobby until a table fills up, and every table
+ * runs on a shared, fixed pool of worker threads. With a GameJournal, the
+ * tables record their games in it and are rebuilt from it after a restart.
+ */
+public class TableManager implements Lobby.SeatingListener {
+
+    private static final int DEAL_POOL_CAPACITY = 256;
+    private static final long BOT_BUDGET_MILLIS = 50;
+    private static final int BOT_STRENGTH = 5;
+
+    private final Server server;
+    private final ExecutorService workers;
+    private final Lobby lobby;
+    private final DealingEngine dealingEngine;
+    private final DealPool dealPool;
+    private final BotEngine botEngine;
+    private final GameJournal journal;      // Null if games are not journaled.
+    private volatile SpectatorServer spectators;   // Null if nobody can watch.
+    private final ConcurrentHashMap<Integer, PokerTable> tablesByPlayer = new ConcurrentHashMap<Integer, PokerTable>();
+    private final ConcurrentHashMap<Integer, Integer> bucketsOfNewPlayers = new ConcurrentHashMap<Integer, Integer>();
+    private final AtomicInteger nextTableID = new AtomicInteger(1);
+    private final AtomicInteger openTables = new AtomicInteger();
+    private final SecureRandom rejoinKeys = new SecureRandom();
+
+    public TableManager(Server server, int workerThreads) {
+        this(server, workerThreads, new DealingEngine(2, PokerTable.SEATS, PokerTable.HAND_SIZE,
+                DealingEngine.RandomSource.SPLITTABLE));
+    }
+
+    public TableManager(Server server, int workerThreads, DealingEngine dealingEngine) {
+        this(server, workerThreads, dealingEngine, null);
+    }
+
+    public TableManager(Server server, int workerThreads, GameJournal journal) {
+        this(server, workerThreads, new DealingEngine(2, PokerTable.SEATS, PokerTable.HAND_SIZE,
+                DealingEngine.RandomSource.SPLITTABLE), journal);
+    }
+
+    public TableManager(Server server, int workerThreads, DealingEngine dealingEngine, GameJournal journal) {
+        if (dealingEngine.getSeats() != PokerTable.SEATS || dealingEngine.getHandSize() != PokerTable.HAND_SIZE)
+            throw new IllegalArgumentException("The dealing engine doesn't deal " + PokerTable.SEATS
+                    + " hands of " + PokerTable.HAND_SIZE + ".");
+        this.server = server;
+        this.dealingEngine = dealingEngine;
+        this.journal = journal;
+        dealPool = new DealPool(dealingEngine, DEAL_POOL_CAPACITY, 1);
+        botEngine = new BotEngine(Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+                BOT_BUDGET_MILLIS, TimeUnit.MILLISECONDS, BOT_STRENGTH);
+        workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "table-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        lobby = new Lobby(PokerTable.SEATS, this);
+    }
+
+    public void playerConnected(int playerID) {
+        playerConnected(playerID, 0);
+    }
+
+    /**
+     * A newly connected player waits outside the lobby until their first
+     * message: a JoinRequest queues them in the lobby, and a RejoinRequest
+     * takes back their seat from before a restart, so a reconnecting player
+     * is never seated at a new table first. Players are only seated with
+     * others from the same bucket, e.g. the same skill or latency band.
+     */
+    public void playerConnected(int playerID, int bucket) {
+        bucketsOfNewPlayers.put(playerID, bucket);
+        server.sendToOne(playerID, "player " + playerID + " join the room.");
+    }
+
+    /* Called by the lobby, on whichever thread completed the group. */
+    public void seated(int[] playerIDs, int bucket) {
+        PokerTable table = new PokerTable(nextTableID.getAndIncrement(), playerIDs, bucket, server, this, workers);
+        for (int seatedID : playerIDs)
+            tablesByPlayer.put(seatedID, table);
+        openTables.incrementAndGet();
+        table.start();
+    }
+
+    public void playerLeft(int playerID) {
+        if (bucketsOfNewPlayers.remove(playerID) != null || lobby.leave(playerID))
+            return;
+        PokerTable table = tablesByPlayer.get(playerID);
+        if (table != null)
+            table.playerLeft(playerID);
+    }
+
+    public void messageReceived(int playerID, Object message) {
+        if (message instanceof RejoinRequest) {
+            rejoinRequested(playerID, (RejoinRequest)message);
+            return;
+        }
+        if (message instanceof JoinRequest) {
+            Integer bucket = bucketsOfNewPlayers.remove(playerID);
+            if (bucket != null)
+                lobby.join(playerID, bucket);
+            return;
+        }
+        PokerTable table = tablesByPlayer.get(playerID);
+        if (table != null)
+            table.messageReceived(playerID, message);
+    }
+
+    public void requestReceived(int playerID, long requestID, Object message) {
+        PokerTable table = tablesByPlayer.get(playerID);
+        if (table != null)
+            table.requestReceived(playerID, requestID, message);
+        else
+            server.respondWithError(playerID, requestID, "You are not at a table.");
+    }
+
+    /*
+     * Rebuild the tables a journal says were in play. The PokerServer calls this
+     * before it listens, so no player has connected yet. Their players have
+     * until the rejoin deadline to send a RejoinRequest with their old ID.
+     * Returns how many tables were restored.
+     */
+    public int restoreTables(List<GameJournal.OpenTable> records) {
+        List<PokerTable> restored = new ArrayList<PokerTable>();
+        int highestPlayerID = 0;
+        for (GameJournal.OpenTable record : records) {
+            PokerTable table = new PokerTable(record.tableID, record.seats, record.bucket, server, this, workers);
+            if (!table.restore(record))
+                continue;
+            for (int playerID : record.seats) {
+                tablesByPlayer.put(playerID, table);
+                highestPlayerID = Math.max(highestPlayerID, playerID);
+            }
+            if (nextTableID.get() <= record.tableID)
+                nextTableID.set(record.tableID + 1);
+            restored.add(table);
+        }
+        server.reservePlayerIDs(highestPlayerID);
+        if (journal != null)
+            journal.recovered();
+        openTables.addAndGet(restored.size());
+        for (PokerTable table : restored)
+            table.start();
+        return restored.size();
+    }
+
+    /*
+     * A player who is not at a table claims their seat from before a restart.
+     * The table checks the seat's rejoin key, and puts them in the lobby if it
+     * is wrong, as if they had asked to join.
+     */
+    private void rejoinRequested(int playerID, RejoinRequest request) {
+        Integer bucket = bucketsOfNewPlayers.remove(playerID);
+        if (bucket == null && !lobby.leave(playerID)) {
+            server.sendToOne(playerID, "There is no seat of player " + request.playerID + " to rejoin.");
+            return;
+        }
+        PokerTable table = tablesByPlayer.get(request.playerID);
+        if (table == null) {
+            server.sendToOne(playerID, "There is no seat of player " + request.playerID + " to rejoin.");
+            rejoinRefused(playerID);
+            return;
+        }
+        table.rejoin(request, playerID);
+    }
+
+    /* Called by a table, on its worker, once a player has taken back their seat. */
+    void seatRejoined(PokerTable table, int oldPlayerID, int playerID) {
+        tablesByPlayer.remove(oldPlayerID, table);
+        tablesByPlayer.put(playerID, table);
+    }
+
+    /* Called by a table that turned down a rejoin: the player waits in the lobby instead. */
+    void rejoinRefused(int playerID) {
+        lobby.join(playerID, 0);
+    }
+
+    /* Called by a table, on its worker, once its game is over. */
+    void tableFinished(PokerTable table) {
+        for (int playerID : table.getSeats())
+            tablesByPlayer.remove(playerID, table);
+        openTables.decrementAndGet();
+    }
+
+    /*
+     * Called by a table that lost a player before the deal: the players that are
+     * still here go back to the front of the lobby.
+     */
+    void tableAbandoned(PokerTable table, int[] remainingPlayers, long seatedNanos) {
+        tableFinished(table);
+        lobby.requeue(remainingPlayers, table.getBucket(), seatedNanos);
+    }
+
+    public int getOpenTables() {
+        return openTables.get();
+    }
+
+    /* A new seat's key for RejoinRequests; callable from any table. */
+    long newRejoinKey() {
+        return rejoinKeys.nextLong();
+    }
+
+    public DealingEngine getDealingEngine() {
+        return dealingEngine;
+    }
+
+    /* Null if games are not journaled. */
+    GameJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Publish every table opened from now on to this spectator tier.
+     */
+    public void setSpectators(SpectatorServer spectators) {
+        this.spectators = spectators;
+    }
+
+    /* Null if nobody can watch. */
+    SpectatorServer getSpectators() {
+        return spectators;
+    }
+
+    /* Plays the seats of players who left or ran out of time. */
+    public BotEngine getBotEngine() {
+        return botEngine;
+    }
+
+    /* Run a task for a table after a delay on the server's timer wheel, e.g. a turn timeout. */
+    TimerWheel.Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return server.getTimerWheel().schedule(task, delay, unit);
+    }
+
+    /* Pre-shuffled deals for tables starting a game. */
+    public DealPool getDealPool() {
+        return dealPool;
+    }
+
+    public Lobby getLobby() {
+        return lobby;
+    }
+}
@@ -0,0 +1,47 @@
+import java.io.Serializable;
+
+/**
+ * What a spectator sees of a table: the players, how many cards each has,
+ * the latest move and whose turn it is, but never the cards in the hands.
+ * A view is sent after every change and is complete by itself, so a
+ * spectator that misses some loses nothing; a view with a lower version than
+ * one already seen is stale.
+ */
+public class TableView implements Serializable {
+
+    public final int tableID;
+    public final int version;           // Counts the changes to the table.
+    public final int[] seats;           // Player ID sitting in each seat.
+    public final int[] cardsLeft;
+    public final int lastMoveSeat;      // -1 before the first move.
+    public final PlayMessage lastMove;  // May be a pass.
+    public final int currentSeat;
+    public final int winnerSeat;        // -1 while the game is on, or if it was abandoned.
+    public final boolean over;
+
+    public TableView(int tableID, int version, int[] seats, int[] cardsLeft, int lastMoveSeat, PlayMessage lastMove,
+                     int currentSeat, int winnerSeat, boolean over) {
+        this.tableID = tableID;
+        this.version = version;
+        this.seats = seats;
+        this.cardsLeft = cardsLeft;
+        this.lastMoveSeat = lastMoveSeat;
+        this.lastMove = lastMove;
+        this.currentSeat = currentSeat;
+        this.winnerSeat = winnerSeat;
+        this.over = over;
+    }
+
+    public String toString() {
+        StringBuilder text = new StringBuilder("table ").append(tableID).append(':');
+        for (int seat = 0; seat < seats.length; seat++)
+            text.append(" player ").append(seats[seat]).append(" (").append(cardsLeft[seat]).append(')');
+        if (lastMoveSeat >= 0)
+            text.append(", player ").append(seats[lastMoveSeat]).append(" played ").append(lastMove);
+        if (over)
+            text.append(winnerSeat >= 0 ? ", player " + seats[winnerSeat] + " won" : ", abandoned");
+        else
+            text.append(", player ").append(seats[currentSeat]).append("'s turn");
+        return text.toString();
+    }
+}
@@ -0,0 +1,19 @@
+import java.io.Serializable;
+
+/**
+ * Sent by a spectator to SpectatorServer with Client.request(), to watch a
+ * table instead of the one it was watching. The response is the table's
+ * current TableView.
+ */
+public class WatchRequest implements Serializable {
+
+    public final int tableID;
+
+    public WatchRequest(int tableID) {
+        this.tableID = tableID;
+    }
+
+    public String toString() {
+        return "watch table " + tableID;
+    }
+}
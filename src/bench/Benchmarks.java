@@ -0,0 +1,25 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Helpers shared by the benchmarks. They are run from the command line and
+ * are not part of the networking library or the game.
+ */
+public final class Benchmarks {
+
+    private Benchmarks() { }
+
+    /**
+     * Stop System.out from printing, since servers and clients log every
+     * connection and departure, and return the original stream for results.
+     */
+    public static PrintStream silenceConsole() {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) { }
+        }));
+        return console;
+    }
+}
@@ -0,0 +1,110 @@
+package bench;
+
+import networkcore.Client;
+import networkcore.ClientConfig;
+import networkcore.OverflowPolicy;
+import networkcore.Server;
+import networkcore.ServerConfig;
+import networkcore.Transport;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contention check of the Server's player registry on the LOOPBACK transport:
+ * sender threads send to single players, and every hundredth message to
+ * everyone, while joiner threads keep connecting and disconnecting Clients,
+ * so the registry is read and changed at the same time. Prints the sends and
+ * joins per second and the slowest of each.
+ * Usage: RegistryBenchmark [senders] [joiners] [players] [seconds]
+ */
+public class RegistryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int senderCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int joinerCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int playerCount = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        final int port = 32120;
+        PrintStream console = Benchmarks.silenceConsole();
+        final Server server = new Server(port, new ServerConfig().setTransport(Transport.LOOPBACK)
+                .setOverflowPolicy(OverflowPolicy.BLOCK));
+        final ClientConfig config = new ClientConfig().setTransport(Transport.LOOPBACK);
+        final AtomicLong received = new AtomicLong();
+        final int[] playerIDs = new int[playerCount];
+        for (int i = 0; i < playerCount; i++) {
+            playerIDs[i] = new Client("localhost", port, config) {
+                protected void messageReceived(Object message) {
+                    received.incrementAndGet();
+                }
+            }.getID();
+        }
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final long[] counts = new long[senderCount + joinerCount];     // Senders first, then joiners.
+        final long[] slowest = new long[counts.length];
+        Thread[] threads = new Thread[counts.length];
+        for (int t = 0; t < senderCount; t++) {
+            final int index = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(index);
+                    while (System.nanoTime() < end) {
+                        long before = System.nanoTime();
+                        if (counts[index] % 100 == 0)
+                            server.sendToAll(index);
+                        else
+                            server.sendToOne(playerIDs[random.nextInt(playerIDs.length)], index);
+                        slowest[index] = Math.max(slowest[index], System.nanoTime() - before);
+                        counts[index]++;
+                    }
+                }
+            }, "sender-" + t);
+        }
+        for (int t = senderCount; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (System.nanoTime() < end) {
+                            long before = System.nanoTime();
+                            Client joiner = new Client("localhost", port, config) {
+                                protected void messageReceived(Object message) { }
+                            };
+                            slowest[index] = Math.max(slowest[index], System.nanoTime() - before);
+                            joiner.disconnect();
+                            counts[index]++;
+                        }
+                    }
+                    catch (IOException e) {
+                        System.err.println("Joiner stopped: " + e);
+                    }
+                }
+            }, "joiner-" + (t - senderCount));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        long sends = 0;
+        long joins = 0;
+        long slowestSend = 0;
+        long slowestJoin = 0;
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            if (t < senderCount) {
+                sends += counts[t];
+                slowestSend = Math.max(slowestSend, slowest[t]);
+            }
+            else {
+                joins += counts[t];
+                slowestJoin = Math.max(slowestJoin, slowest[t]);
+            }
+        }
+        console.println(senderCount + " senders and " + joinerCount + " joiners with " + playerCount + " players for "
+                + seconds + " s: " + sends / seconds + " sends/sec (slowest " + slowestSend / 1000 + " us), "
+                + joins / seconds + " joins/sec (slowest " + slowestJoin / 1000 + " us), "
+                + received.get() + " messages received.");
+        System.exit(0);
+    }
+}
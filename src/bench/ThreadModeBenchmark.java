@@ -0,0 +1,84 @@
+package bench;
+
+import networkcore.Client;
+import networkcore.ClientConfig;
+import networkcore.Server;
+import networkcore.ServerConfig;
+import networkcore.ThreadMode;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of both ThreadModes on THREAD_PER_CONNECTION. Clients of the mode
+ * connect to a Server of the mode in rounds that double, up to the limit or
+ * until a round fails, and every round ends with a broadcast all of them must
+ * receive. Each round prints the time to connect, the time to deliver the
+ * broadcast, the platform threads alive and the heap in use.
+ * Usage: ThreadModeBenchmark [most connections]
+ */
+public class ThreadModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int limit = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        PrintStream console = Benchmarks.silenceConsole();
+        if (!ThreadMode.virtualThreadsSupported())
+            console.println("This runtime has no virtual threads, so VIRTUAL runs on platform threads.");
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Runtime runtime = Runtime.getRuntime();
+        ThreadMode[] modes = ThreadMode.values();
+        for (int m = 0; m < modes.length; m++) {
+            ThreadMode mode = modes[m];
+            int port = 32110 + m;
+            Server server = new Server(port, new ServerConfig().setThreadMode(mode).setMembershipUpdates(false));
+            ClientConfig config = new ClientConfig().setThreadMode(mode);
+            final AtomicLong received = new AtomicLong();
+            List<Client> clients = new ArrayList<Client>();
+            try {
+                while (clients.size() < limit) {
+                    int target = Math.min(limit, clients.isEmpty() ? 250 : 2 * clients.size());
+                    long start = System.nanoTime();
+                    while (clients.size() < target) {
+                        clients.add(new Client("localhost", port, config) {
+                            protected void messageReceived(Object message) {
+                                received.incrementAndGet();
+                            }
+                        });
+                    }
+                    long connectMillis = (System.nanoTime() - start) / 1000000;
+                    long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+                    while (server.getPlayerList().length < target && System.nanoTime() < waitUntil)
+                        Thread.sleep(10);
+                    received.set(0);
+                    start = System.nanoTime();
+                    server.sendToAll("ping");
+                    while (received.get() < target && System.nanoTime() < waitUntil)
+                        Thread.sleep(1);
+                    long broadcastMillis = (System.nanoTime() - start) / 1000000;
+                    console.println(mode + ": " + target + " connections in " + connectMillis + " ms, broadcast to "
+                            + received.get() + " in " + broadcastMillis + " ms, " + threads.getThreadCount()
+                            + " platform threads, " + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024)
+                            + " MB of heap in use.");
+                    if (received.get() < target)
+                        break;
+                }
+            }
+            catch (IOException e) {
+                console.println(mode + " stopped at " + clients.size() + " connections: " + e);
+            }
+            catch (OutOfMemoryError e) {
+                console.println(mode + " stopped at " + clients.size() + " connections: " + e);
+            }
+            for (Client client : clients)
+                client.disconnect();
+            server.shutdownServerSocket();
+        }
+        System.exit(0);
+    }
+}
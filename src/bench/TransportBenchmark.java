@@ -0,0 +1,134 @@
+package bench;
+
+import networkcore.Client;
+import networkcore.DisconnectMessage;
+import networkcore.MessageCodec;
+import networkcore.Server;
+import networkcore.ServerConfig;
+import networkcore.Transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the SELECTOR and THREAD_PER_CONNECTION transports on this machine.
+ * First the server holds many idle connections, from plain sockets that only
+ * send the hello, and the threads it started for them are counted. Then it
+ * broadcasts to a smaller number of Clients, and the messages delivered per
+ * second are counted. Membership updates are off, so joins cost the same
+ * either way.
+ * Usage: TransportBenchmark [connections] [clients] [broadcasts]
+ */
+public class TransportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int broadcasts = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        PrintStream console = Benchmarks.silenceConsole();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Transport[] transports = {Transport.THREAD_PER_CONNECTION, Transport.SELECTOR};
+        for (int i = 0; i < transports.length; i++) {
+            int port = 32100 + i;
+            ServerConfig config = new ServerConfig().setTransport(transports[i]).setMembershipUpdates(false)
+                    .setOutgoingQueueCapacity(Math.max(1024, broadcasts));
+            int threadsBefore = settledThreadCount(threads);     // The last round's threads are gone.
+            Server server = new Server(port, config);
+            byte[] hello = frame(config.getCodec(), "Hello Server");
+            byte[] goodBye = frame(config.getCodec(), new DisconnectMessage("Good Bye"));
+            List<Socket> sockets = new ArrayList<Socket>();
+            long start = System.nanoTime();
+            for (int c = 0; c < connections; c++) {
+                Socket socket = new Socket("localhost", port);
+                socket.getOutputStream().write(hello);
+                sockets.add(socket);
+            }
+            boolean held = waitFor(server, connections);
+            long holdMillis = (System.nanoTime() - start) / 1000000;
+            int serverThreads = threads.getThreadCount() - threadsBefore;
+            for (Socket socket : sockets)
+                socket.getOutputStream().write(goodBye);
+            waitFor(server, 0);
+            for (Socket socket : sockets) {
+                socket.setSoTimeout(1000);
+                try {
+                    while (socket.getInputStream().read(new byte[256]) >= 0) { }     // Until the server closes.
+                }
+                catch (IOException e) {
+                }
+                socket.close();
+            }
+
+            final AtomicLong received = new AtomicLong();
+            List<Client> receivers = new ArrayList<Client>();
+            for (int c = 0; c < clients; c++) {
+                receivers.add(new Client("localhost", port) {
+                    protected void messageReceived(Object message) {
+                        received.incrementAndGet();
+                    }
+                });
+            }
+            waitFor(server, clients);
+            long expected = (long)clients * broadcasts;
+            start = System.nanoTime();
+            for (int b = 0; b < broadcasts; b++)
+                server.sendToAll(b);
+            long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (received.get() < expected && System.nanoTime() < waitUntil)
+                Thread.sleep(1);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            console.println(transports[i] + ": held " + (held ? connections : server.getPlayerList().length)
+                    + " connections with " + serverThreads + " server threads in " + holdMillis + " ms; delivered "
+                    + received.get() + " of " + expected + " broadcast messages at "
+                    + (long)(received.get() / seconds) + " messages/sec.");
+            for (Client receiver : receivers)
+                receiver.disconnect();
+            server.shutdownServerSocket();
+            waitFor(server, 0);
+        }
+        System.exit(0);
+    }
+
+    /* A message as the transports frame it: its length, then the codec's bytes. */
+    private static byte[] frame(MessageCodec codec, Object message) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        codec.encode(message, new DataOutputStream(body));
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(frame);
+        output.writeInt(body.size());
+        body.writeTo(output);
+        return frame.toByteArray();
+    }
+
+    /* The number of live threads once it has stopped changing for a while. */
+    private static int settledThreadCount(ThreadMXBean threads) throws InterruptedException {
+        int count = threads.getThreadCount();
+        for (int unchanged = 0; unchanged < 5; ) {
+            Thread.sleep(100);
+            int now = threads.getThreadCount();
+            unchanged = now == count ? unchanged + 1 : 0;
+            count = now;
+        }
+        return count;
+    }
+
+    /* Wait up to a minute for the server to have this many players. */
+    private static boolean waitFor(Server server, int players) throws InterruptedException {
+        long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (server.getPlayerList().length != players) {
+            if (System.nanoTime() > waitUntil)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
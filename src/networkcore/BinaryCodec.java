@@ -0,0 +1,274 @@
+package networkcore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Compact tagged binary format. Every message starts with a one byte tag.
+ * Strings, Integers, int arrays and the networkcore control messages have
+ * built-in tags; applications register their own types with register() and
+ * frequent strings with registerConstant(). Anything else falls back to
+ * Java serialization, so every Serializable message can still be sent.
+ *
+ * Register everything before the codec is handed to a Server or Client, and
+ * register in the same order on both ends.
+ */
+public class BinaryCodec implements MessageCodec {
+
+    /**
+     * Tags below this value are reserved for networkcore.
+     */
+    public static final int FIRST_APPLICATION_TAG = 32;
+
+    private static final int NULL = 0;
+    private static final int SERIALIZED = 1;
+    private static final int STRING = 2;
+    private static final int CONSTANT = 3;
+    private static final int INTEGER = 4;
+    private static final int INT_ARRAY = 5;
+    private static final int STATUS = 6;
+    private static final int FORWARDED = 7;
+    private static final int DISCONNECT = 8;
+    private static final int SNAPSHOT_REQUEST = 9;
+    private static final int SESSION_TOKEN = 10;
+    private static final int RESUME_REQUEST = 11;
+    private static final int REQUEST = 12;
+    private static final int RESPONSE = 13;
+
+    private static final int MAX_CONSTANTS = 256;
+    private static final int MAX_UTF_LENGTH = 65535 / 3;  // Worst case for writeUTF.
+
+    /**
+     * Writes a value of a registered type, without its tag.
+     */
+    public interface TypeWriter<T> {
+        void write(T value, DataOutputStream output) throws IOException;
+    }
+
+    /**
+     * Reads a value of a registered type, after its tag.
+     */
+    public interface TypeReader<T> {
+        T read(DataInputStream input) throws IOException;
+    }
+
+    private static class Registration {
+        final int tag;
+        final TypeWriter<Object> writer;
+        final TypeReader<?> reader;
+
+        Registration(int tag, TypeWriter<Object> writer, TypeReader<?> reader) {
+            this.tag = tag;
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+
+    private final SerializationCodec fallback = new SerializationCodec();
+    private final HashMap<Class<?>, Registration> byClass = new HashMap<Class<?>, Registration>();
+    private final Registration[] byTag = new Registration[256];
+    private final HashMap<String, Integer> constantIndex = new HashMap<String, Integer>();
+    private final ArrayList<String> constants = new ArrayList<String>();
+
+    public BinaryCodec() {
+        registerConstant("Hello Server");
+        registerConstant("* Good Bye *");
+    }
+
+    /**
+     * Give a message class its own tag. The class is matched exactly, so
+     * subclasses need registrations of their own.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> BinaryCodec register(int tag, Class<T> type, TypeWriter<? super T> writer, TypeReader<T> reader) {
+        if (tag < FIRST_APPLICATION_TAG || tag > 255)
+            throw new IllegalArgumentException("Application tags must be between " + FIRST_APPLICATION_TAG + " and 255.");
+        if (byTag[tag] != null || byClass.containsKey(type))
+            throw new IllegalArgumentException("Tag " + tag + " or " + type.getName() + " is already registered.");
+        Registration registration = new Registration(tag, (TypeWriter<Object>)writer, reader);
+        byTag[tag] = registration;
+        byClass.put(type, registration);
+        return this;
+    }
+
+    /**
+     * Send this exact string as a single byte index instead of its characters.
+     */
+    public BinaryCodec registerConstant(String constant) {
+        if (constantIndex.containsKey(constant))
+            return this;
+        if (constants.size() == MAX_CONSTANTS)
+            throw new IllegalStateException("Too many string constants.");
+        constantIndex.put(constant, constants.size());
+        constants.add(constant);
+        return this;
+    }
+
+    public void encode(Object message, DataOutputStream output) throws IOException {
+        if (message == null) {
+            output.writeByte(NULL);
+            return;
+        }
+        Registration registration = byClass.get(message.getClass());
+        if (registration != null) {
+            output.writeByte(registration.tag);
+            registration.writer.write(message, output);
+        }
+        else if (message instanceof String) {
+            String text = (String)message;
+            Integer index = constantIndex.get(text);
+            if (index != null) {
+                output.writeByte(CONSTANT);
+                output.writeByte(index);
+            }
+            else if (text.length() <= MAX_UTF_LENGTH) {
+                output.writeByte(STRING);
+                output.writeUTF(text);
+            }
+            else
+                writeSerialized(message, output);
+        }
+        else if (message instanceof Integer) {
+            output.writeByte(INTEGER);
+            output.writeInt((Integer)message);
+        }
+        else if (message instanceof int[]) {
+            output.writeByte(INT_ARRAY);
+            writeInts((int[])message, output);
+        }
+        else if (message instanceof StatusMessage) {
+            StatusMessage status = (StatusMessage)message;
+            output.writeByte(STATUS);
+            output.writeLong(status.version);
+            output.writeInt(status.playerID);
+            output.writeBoolean(status.connecting);
+            output.writeBoolean(status.isSnapshot());
+            if (status.isSnapshot())
+                writeInts(status.players, output);
+        }
+        else if (message instanceof ForwardedMessage) {
+            ForwardedMessage forwarded = (ForwardedMessage)message;
+            output.writeByte(FORWARDED);
+            output.writeInt(forwarded.senderID);
+            encodeWrapped(forwarded.message, output);
+        }
+        else if (message instanceof DisconnectMessage) {
+            output.writeByte(DISCONNECT);
+            output.writeUTF(((DisconnectMessage)message).message);
+        }
+        else if (message instanceof SnapshotRequest) {
+            output.writeByte(SNAPSHOT_REQUEST);
+        }
+        else if (message instanceof SessionToken) {
+            output.writeByte(SESSION_TOKEN);
+            output.writeLong(((SessionToken)message).token);
+        }
+        else if (message instanceof ResumeRequest) {
+            ResumeRequest request = (ResumeRequest)message;
+            output.writeByte(RESUME_REQUEST);
+            output.writeInt(request.playerID);
+            output.writeLong(request.token);
+            output.writeLong(request.received);
+        }
+        else if (message instanceof Request) {
+            Request request = (Request)message;
+            output.writeByte(REQUEST);
+            output.writeLong(request.requestID);
+            encodeWrapped(request.message, output);
+        }
+        else if (message instanceof Response) {
+            Response response = (Response)message;
+            output.writeByte(RESPONSE);
+            output.writeLong(response.requestID);
+            output.writeBoolean(response.failed);
+            encodeWrapped(response.message, output);
+        }
+        else
+            writeSerialized(message, output);
+    }
+
+    public Object decode(DataInputStream input) throws IOException {
+        return decode(input, false);
+    }
+
+    /*
+     * A forwarded message, request or response never carries another one, so a
+     * wrapped message with one of those tags is refused rather than decoded
+     * recursively: a frame of nested tags would otherwise overflow the stack.
+     */
+    private Object decode(DataInputStream input, boolean wrapped) throws IOException {
+        int tag = input.readUnsignedByte();
+        if (wrapped && (tag == FORWARDED || tag == REQUEST || tag == RESPONSE))
+            throw new IOException("Message tag " + tag + " can't be wrapped in another message.");
+        switch (tag) {
+            case NULL: return null;
+            case SERIALIZED: return fallback.decode(input);
+            case STRING: return input.readUTF();
+            case CONSTANT:
+                int index = input.readUnsignedByte();
+                if (index >= constants.size())
+                    throw new IOException("Unknown string constant " + index + ".");
+                return constants.get(index);
+            case INTEGER: return input.readInt();
+            case INT_ARRAY: return readInts(input);
+            case STATUS:
+                long version = input.readLong();
+                int playerID = input.readInt();
+                boolean connecting = input.readBoolean();
+                int[] players = input.readBoolean() ? readInts(input) : null;
+                return new StatusMessage(version, playerID, connecting, players);
+            case FORWARDED:
+                int senderID = input.readInt();
+                return new ForwardedMessage(senderID, decode(input, true));
+            case DISCONNECT: return new DisconnectMessage(input.readUTF());
+            case SNAPSHOT_REQUEST: return new SnapshotRequest();
+            case SESSION_TOKEN: return new SessionToken(input.readLong());
+            case RESUME_REQUEST:
+                int resumingID = input.readInt();
+                long token = input.readLong();
+                return new ResumeRequest(resumingID, token, input.readLong());
+            case REQUEST:
+                long requestID = input.readLong();
+                return new Request(requestID, decode(input, true));
+            case RESPONSE:
+                long respondingTo = input.readLong();
+                boolean failed = input.readBoolean();
+                return new Response(respondingTo, failed, decode(input, true));
+            default:
+                Registration registration = byTag[tag];
+                if (registration == null)
+                    throw new IOException("Unknown message tag " + tag + ".");
+                return registration.reader.read(input);
+        }
+    }
+
+    private void encodeWrapped(Object message, DataOutputStream output) throws IOException {
+        if (message instanceof ForwardedMessage || message instanceof Request || message instanceof Response)
+            throw new IOException(message.getClass().getSimpleName() + " can't be wrapped in another message.");
+        encode(message, output);
+    }
+
+    private void writeSerialized(Object message, DataOutputStream output) throws IOException {
+        output.writeByte(SERIALIZED);
+        fallback.encode(message, output);
+    }
+
+    private static void writeInts(int[] values, DataOutputStream output) throws IOException {
+        output.writeInt(values.length);
+        for (int value : values)
+            output.writeInt(value);
+    }
+
+    private static int[] readInts(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > Frames.MAX_FRAME_LENGTH / 4)     // Checked before multiplying, which could overflow.
+            throw new IOException("Illegal int array length " + length + ".");
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++)
+            values[i] = input.readInt();
+        return values;
+    }
+}
@@ -1,21 +1,80 @@
 package networkcore;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.rmi.server.ExportException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 abstract public class Client {
 
-    protected int[] connectedPlayerIDs = new int[0];
-    private volatile boolean autoreset;
-    private final ConnectToServer connection;
+    /**
+     * IDs of the connected players, in increasing order. Updated by the receive
+     * thread, which always publishes a new array and never changes one in place,
+     * so any thread may read it.
+     */
+    protected volatile int[] connectedPlayerIDs = new int[0];
+    private volatile ServerConnection connection;      // Replaced when the session is resumed.
+    private final String host;
+    private final int port;
+    private final ClientConfig config;
+    private final TransportStats stats = new TransportStats();
+    private final ReentrantLock closeLock = new ReentrantLock();
+    private final Executor callbacks;       // Null to run callbacks on the receive thread.
+
+    /* Requests waiting for their Response, by ID. */
+    private final ConcurrentHashMap<Long, PendingRequest> pendingRequests = new ConcurrentHashMap<Long, PendingRequest>();
+    private final AtomicLong lastRequestID = new AtomicLong();
+
+    private static final long FIRST_RESUME_BACKOFF_MILLIS = 50;
+    private static final long MAX_RESUME_BACKOFF_MILLIS = 1000;
+
+    /* Only touched by the thread delivering messages; -1 until the first snapshot. */
+    private long membershipVersion = -1;
+    private boolean snapshotRequested;
+
+    /*
+     * Written by the thread delivering messages. The token is set if the Server
+     * lets sessions be resumed; the count is of the messages it numbers, see Session.
+     */
+    private volatile boolean resumable;
+    private volatile long sessionToken;
+    private volatile long receivedMessages;
+    private volatile boolean disconnecting;
 
     public Client(String hostIPAddress, int hostPort) throws IOException{
-        connection = new ConnectToServer(hostIPAddress, hostPort);
+        this(hostIPAddress, hostPort, new ClientConfig());
+    }
+
+    /**
+     * With the LOOPBACK transport the host is ignored and the port names a
+     * Server in this JVM that was started with the LOOPBACK transport.
+     */
+    public Client(String hostIPAddress, int hostPort, ClientConfig config) throws IOException {
+        host = hostIPAddress;
+        port = hostPort;
+        this.config = config;
+        callbacks = config.getCallbackExecutor() == null ? null : new SerialExecutor(config.getCallbackExecutor());
+        if (config.getTransport() == Transport.LOOPBACK)
+            connection = LoopbackTransport.connect(this, hostPort, config);
+        else
+            connection = new ConnectToServer(hostIPAddress, hostPort, config, "Hello Server", 0);
+        connection.start();
     }
 
     abstract protected void messageReceived(Object message);
@@ -32,64 +91,386 @@ abstract public class Client {
     throws IOException { }
 
     public void disconnect() {
-        if (!connection.closed)
+        disconnecting = true;
+        if (!connection.isClosed())
             connection.send(new DisconnectMessage("Good Bye"));
+        deliver(new Runnable() {
+            public void run() {
+                failPendingRequests("The client disconnected.");
+            }
+        });
     }
 
     public void send(Object message) {
+        checkSendable(message);
+        connection.send(message);
+    }
+
+    /**
+     * Send a message the Server answers in its requestReceived(). The future
+     * completes with the Server's response, or fails with a
+     * RequestFailedException if the Server refused the request, a
+     * TimeoutException after the configured request timeout, or an IOException
+     * if the connection closes first. Any number of requests may be
+     * outstanding at once; responses are matched to them by ID.
+     *
+     * With a callback executor, futures complete on it, in order with
+     * messageReceived(). Without one they complete on the receive thread, and
+     * time out on the common pool.
+     */
+    public CompletableFuture<Object> request(Object message) {
+        return request(message, config.getRequestTimeoutNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Like request(message), with its own timeout; zero waits until the
+     * connection closes.
+     */
+    public CompletableFuture<Object> request(Object message, long timeout, TimeUnit unit) {
+        checkSendable(message);
+        final long requestID = lastRequestID.incrementAndGet();
+        final PendingRequest pending = new PendingRequest();
+        pendingRequests.put(requestID, pending);
+        try {
+            connection.send(new Request(requestID, message));
+        }
+        catch (RuntimeException e) {
+            pendingRequests.remove(requestID);
+            throw e;
+        }
+        if (timeout > 0) {
+            final long millis = unit.toMillis(timeout);
+            pending.timeout = RequestTimer.WHEEL.schedule(new Runnable() {
+                public void run() {
+                    if (pendingRequests.remove(requestID, pending)) {
+                        Runnable fail = new Runnable() {
+                            public void run() {
+                                pending.future.completeExceptionally(new TimeoutException(
+                                        "No response to request " + requestID + " in " + millis + " ms."));
+                            }
+                        };
+                        if (callbacks != null)
+                            callbacks.execute(fail);
+                        else
+                            ForkJoinPool.commonPool().execute(fail);
+                    }
+                }
+            }, timeout, unit);
+        }
+        return pending.future;
+    }
+
+    private void checkSendable(Object message) {
         if (message == null)
             throw new IllegalArgumentException("Null cannot be sent as a message.");
         if (! (message instanceof Serializable) )
             throw new IllegalArgumentException("Messages must implement the Serializable interface.");
-        if (connection.closed)
+        if (connection.isClosed())
             throw new IllegalStateException("Message cannot be sent because the connection is closed.");
-        connection.send(message);
     }
 
     public int getID() {
-        return connection.playerID;
+        return connection.getPlayerID();
+    }
+
+    /**
+     * Messages can't be sent while a dropped connection is being resumed; send()
+     * throws IllegalStateException then, as it does once the connection is closed.
+     */
+    public boolean isConnected() {
+        return !connection.isClosed();
     }
 
     /**
-     * This private class handles the actual communication with the server.
+     * Encode and flush counters for this client's connection.
      */
-    private class ConnectToServer {
+    public TransportStats getStats() {
+        return stats;
+    }
+
+    /*
+     * Close the connection after an error, telling the subclass once. With a
+     * session token, the subclass is only told if the session can't be resumed.
+     */
+    void closedByError(ServerConnection from, String message) {
+        closeLock.lock();
+        try {
+            if ( ! from.isClosed() ) {
+                if (resumable && !disconnecting && from == connection && from.canResume()
+                        && config.getResumeTimeoutNanos() > 0)
+                    from.lostReason = message;      // Its receive thread resumes once it has stopped.
+                else
+                    closedForGood(message);
+                from.close();
+            }
+        }
+        finally {
+            closeLock.unlock();
+        }
+    }
+
+    /*
+     * Called by a dropped connection's receive thread once it has stopped, so
+     * every message it read has been delivered and counted. Reconnects with the
+     * session token, backing off, until the resume timeout runs out.
+     */
+    void resume(ServerConnection lost) {
+        long deadline = System.nanoTime() + config.getResumeTimeoutNanos();
+        long backoffMillis = FIRST_RESUME_BACKOFF_MILLIS;
+        while (!disconnecting) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0)
+                break;
+            try {
+                ServerConnection resumed = new ConnectToServer(host, port, config,
+                        new ResumeRequest(lost.getPlayerID(), sessionToken, receivedMessages),
+                        (int)Math.max(1, left / 1000000));
+                closeLock.lock();
+                try {
+                    if (disconnecting) {
+                        resumed.close();
+                        break;
+                    }
+                    connection = resumed;
+                }
+                finally {
+                    closeLock.unlock();
+                }
+                stats.sessionResumed();
+                resumed.start();
+                return;
+            }
+            catch (ResumeRefusedException e) {
+                break;
+            }
+            catch (IOException e) {
+            }
+            try {
+                Thread.sleep(Math.min(backoffMillis, Math.max(1, (deadline - System.nanoTime()) / 1000000)));
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            backoffMillis = Math.min(2 * backoffMillis, MAX_RESUME_BACKOFF_MILLIS);
+        }
+        closedForGood(lost.lostReason);
+    }
+
+    /* Tell the subclass the connection is gone and fail the requests still waiting. */
+    private void closedForGood(final String message) {
+        deliver(new Runnable() {
+            public void run() {
+                failPendingRequests(message);
+                connectionClosedByError(message);
+            }
+        });
+    }
+
+    private void failPendingRequests(String reason) {
+        for (Long requestID : pendingRequests.keySet()) {
+            PendingRequest pending = pendingRequests.remove(requestID);
+            if (pending != null) {
+                if (pending.timeout != null)
+                    pending.timeout.cancel();
+                pending.future.completeExceptionally(new IOException(reason));
+            }
+        }
+    }
+
+    /* Run a callback on the callback executor, or right here if there is none. */
+    private void deliver(Runnable callback) {
+        if (callbacks == null)
+            callback.run();
+        else
+            callbacks.execute(callback);
+    }
+
+    /*
+     * Handle one decoded message from the server, on the thread that reads
+     * them in order. Messages are counted here, as they are read, since that
+     * is what a resumed session replays from.
+     */
+    void frameReceived(final ServerConnection from, final Object message) {
+        if (message instanceof SessionToken) {
+            sessionToken = ((SessionToken)message).token;
+            resumable = true;
+            return;
+        }
+        if (message instanceof DisconnectMessage)
+            from.close();
+        else if (!(message instanceof StatusMessage))
+            receivedMessages++;
+        deliver(new Runnable() {
+            public void run() {
+                messageDelivered(from, message);
+            }
+        });
+    }
+
+    private void messageDelivered(ServerConnection from, Object message) {
+        if (message instanceof DisconnectMessage) {
+            String reason = ((DisconnectMessage)message).message;
+            failPendingRequests(reason);
+            serverShutdown(reason);
+        }
+        else if (message instanceof StatusMessage) {
+            membershipChanged(from, (StatusMessage)message);
+        }
+        else if (message instanceof Response) {
+            Response response = (Response)message;
+            PendingRequest pending = pendingRequests.remove(response.requestID);
+            if (pending == null)
+                return;     // Already timed out.
+            if (pending.timeout != null)
+                pending.timeout.cancel();
+            if (response.failed)
+                pending.future.completeExceptionally(new RequestFailedException((String)response.message));
+            else
+                pending.future.complete(response.message);
+        }
+        else {
+            messageReceived(message);
+        }
+    }
+
+    /*
+     * Apply a membership delta or snapshot. A delta that skips a version means
+     * some were dropped on the way; deltas are then ignored until the snapshot
+     * asked for arrives.
+     */
+    private void membershipChanged(ServerConnection from, StatusMessage status) {
+        if (status.isSnapshot()) {
+            if (status.version < membershipVersion)
+                return;
+            int[] old = connectedPlayerIDs;
+            int[] players = status.players.clone();
+            Arrays.sort(players);
+            connectedPlayerIDs = players;
+            membershipVersion = status.version;
+            snapshotRequested = false;
+            for (int id : old) {
+                if (Arrays.binarySearch(players, id) < 0)
+                    playerDisconnected(id);
+            }
+            for (int id : players) {
+                if (Arrays.binarySearch(old, id) < 0)
+                    playerConnected(id);
+            }
+            return;
+        }
+        if (status.version <= membershipVersion)
+            return;
+        if (status.version != membershipVersion + 1 || membershipVersion < 0) {
+            if (!snapshotRequested && !from.isClosed()) {
+                snapshotRequested = true;
+                from.send(new SnapshotRequest());
+            }
+            return;
+        }
+        membershipVersion = status.version;
+        int[] old = connectedPlayerIDs;
+        int index = Arrays.binarySearch(old, status.playerID);
+        if (status.connecting && index < 0) {
+            int insert = -index - 1;
+            int[] players = new int[old.length + 1];
+            System.arraycopy(old, 0, players, 0, insert);
+            players[insert] = status.playerID;
+            System.arraycopy(old, insert, players, insert + 1, old.length - insert);
+            connectedPlayerIDs = players;
+        }
+        else if (!status.connecting && index >= 0) {
+            int[] players = new int[old.length - 1];
+            System.arraycopy(old, 0, players, 0, index);
+            System.arraycopy(old, index + 1, players, index, players.length - index);
+            connectedPlayerIDs = players;
+        }
+        if (status.connecting)
+            playerConnected(status.playerID);
+        else
+            playerDisconnected(status.playerID);
+    }
+
+    /**
+     * This private class handles the actual communication with the server over a socket.
+     */
+    private class ConnectToServer extends ServerConnection {
 
         private final int playerID;
         private final Socket socket;
-        private final ObjectInputStream input;
-        private final ObjectOutputStream output;
-        private final SendThread sendThread;
-        private final ReceiveThread receiveThread;
+        private final DataInputStream input;       // Both streams carry length-prefixed frames.
+        private final DataOutputStream output;
+        private volatile Thread sendThread;
+        private volatile Thread receiveThread;
 
-        private final LinkedBlockingQueue<Object> outgoingMessages;
+        private final MessageCodec codec;
+        private final int maxBatchSize;
+        private final long maxLingerNanos;
+        private final OutboundQueue outgoingMessages;
+        private final ThreadMode threadMode;
 
         private volatile boolean closed;
 
-        ConnectToServer(String host, int port) throws IOException {
-            outgoingMessages = new LinkedBlockingQueue<Object>();
-            socket = new Socket(host, port);
-            output = new ObjectOutputStream(socket.getOutputStream());
-            output.writeObject("Hello Server");
+        /*
+         * Connect and send the hello, the string or a ResumeRequest. A connect
+         * timeout of zero waits as long as the socket does.
+         */
+        ConnectToServer(String host, int port, ClientConfig config, Object hello, int connectTimeoutMillis)
+                throws IOException {
+            codec = config.getCodec();
+            maxBatchSize = config.getMaxBatchSize();
+            maxLingerNanos = config.getMaxLingerNanos();
+            threadMode = config.getThreadMode();
+            outgoingMessages = new OutboundQueue(config.getOutgoingQueueCapacity(), config.getOverflowPolicy(), stats);
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            socket.setTcpNoDelay(true);
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.write(Frames.encode(codec, hello));
             output.flush();
-            input = new ObjectInputStream(socket.getInputStream());
+            input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Object response;
             try {
-                Object response = input.readObject();
-                playerID = ((Integer)response).intValue();
+                response = Frames.read(codec, input);
             }
             catch (Exception e) {
+                socket.close();
                 throw new IOException("Illegal response from server.");
             }
-            sendThread = new SendThread();
-            receiveThread = new ReceiveThread();
-            sendThread.start();
-            receiveThread.start();
+            if (response instanceof DisconnectMessage) {
+                socket.close();
+                throw new ResumeRefusedException(((DisconnectMessage)response).message);
+            }
+            if (!(response instanceof Integer)) {
+                socket.close();
+                throw new IOException("Illegal response from server.");
+            }
+            playerID = ((Integer)response).intValue();
+        }
+
+        boolean canResume() {
+            return true;
+        }
+
+        int getPlayerID() {
+            return playerID;
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        void start() {
+            sendThread = threadMode.start(new SendThread(), "client-send-" + playerID);
+            receiveThread = threadMode.start(new ReceiveThread(), "client-receive-" + playerID);
         }
 
         void close() {
             closed = true;
-            sendThread.interrupt();
-            receiveThread.interrupt();
+            outgoingMessages.close();
+            if (sendThread != null)
+                sendThread.interrupt();
+            if (receiveThread != null)
+                receiveThread.interrupt();
             try {
                 socket.close();
             }
@@ -98,45 +479,58 @@ abstract public class Client {
             }
         }
 
+        /* Encode on the calling thread and queue the frame for the send thread. */
         void send(Object message) {
-            outgoingMessages.add(message);
-        }
-
-        synchronized void closedByError(String message) {
-            if ( ! closed ) {
-                connectionClosedByError(message);
-                close();
+            EncodedMessage encoded;
+            try {
+                encoded = new EncodedMessage(message, Frames.encode(codec, message), true, null);
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException("The message could not be encoded: " + e);
+            }
+            stats.messageEncoded();
+            int result = outgoingMessages.offer(encoded);
+            if (result == OutboundQueue.QUEUED)
+                stats.messageDelivered();
+            else if (result == OutboundQueue.FULL) {
+                stats.slowConsumerDisconnected();
+                closedByError(this, "Too many messages are waiting to be sent to the server.");
             }
         }
 
-        private class SendThread extends Thread {
+        private class SendThread implements Runnable {
             public void run() {
                 try {
+                    ArrayList<EncodedMessage> batch = new ArrayList<EncodedMessage>(maxBatchSize);
                     while ( ! closed ) {
-                        Object message = outgoingMessages.take();
-                        if (message instanceof ResetSignal) {
-                            output.reset();
-                        }
-                        else {
-                            if (autoreset)
-                                output.reset();
-                            output.writeObject(message);
-                            output.flush();
-                            if (message instanceof  DisconnectMessage) {
-                                close();
+                        batch.clear();
+                        SendBatcher.nextBatch(outgoingMessages, batch, maxBatchSize, maxLingerNanos);
+                        boolean disconnect = false;
+                        int written = 0;
+                        for (EncodedMessage message : batch) {
+                            output.write(message.frame);
+                            written++;
+                            if (message.message instanceof  DisconnectMessage) {
+                                disconnect = true;
+                                break;
                             }
                         }
+                        output.flush();     // One flush for the whole batch.
+                        stats.flushed(written);
+                        if (disconnect) {
+                            close();
+                        }
                     }
                 }
                 catch (IOException e) {
                     if ( ! closed ) {
-                        closedByError("IO error occurred while trying to send message.");
+                        closedByError(ConnectToServer.this, "IO error occurred while trying to send message.");
                         System.out.println("Client send thread terminated by IOException: " + e);
                     }
                 }
                 catch (Exception e) {
                     if ( ! closed ) {
-                        closedByError("Unexpected internal error in send thread: " + e);
+                        closedByError(ConnectToServer.this, "Unexpected internal error in send thread: " + e);
                         System.out.println("\nUnexpected error shuts down client send thread:");
                         e.printStackTrace();
                     }
@@ -147,41 +541,46 @@ abstract public class Client {
         /**
          * This class defines a thread that reads messages from the Hub.
          */
-        private class ReceiveThread extends Thread {
+        private class ReceiveThread implements Runnable {
             public void run() {
                 try {
                     while ( ! closed ) {
-                        Object obj = input.readObject();
-                        if (obj instanceof DisconnectMessage) {
-                            close();
-                            serverShutdown(((DisconnectMessage)obj).message);
-                        }
-                        else if (obj instanceof StatusMessage) {
-                            StatusMessage msg = (StatusMessage)obj;
-                            connectedPlayerIDs = msg.players;
-                            if (msg.connecting)
-                                playerConnected(msg.playerID);
-                            else
-                                playerDisconnected(msg.playerID);
-                        }
-                        else
-                            messageReceived(obj);
+                        frameReceived(ConnectToServer.this, Frames.read(codec, input));
                     }
                 }
                 catch (IOException e) {
                     if ( ! closed ) {
-                        closedByError("IO error occurred while waiting to receive  message.");
+                        closedByError(ConnectToServer.this, "IO error occurred while waiting to receive  message.");
                         System.out.println("Client receive thread terminated by IOException: " + e);
                     }
                 }
                 catch (Exception e) {
                     if ( ! closed ) {
-                        closedByError("Unexpected internal error in receive thread: " + e);
+                        closedByError(ConnectToServer.this, "Unexpected internal error in receive thread: " + e);
                         System.out.println("\nUnexpected error shuts down client receive thread:");
                         e.printStackTrace();
                     }
                 }
+                if (lostReason != null)
+                    resume(ConnectToServer.this);
             }
         }
     }
+
+    private static class PendingRequest {
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        volatile TimerWheel.Timeout timeout;
+    }
+
+    /* One timer for the request timeouts of every Client in the JVM, started on first use. */
+    private static class RequestTimer {
+        static final TimerWheel WHEEL = new TimerWheel(10, TimeUnit.MILLISECONDS, 512, "client-request-timer");
+    }
+
+    /* The Server answered a ResumeRequest with a DisconnectMessage. */
+    private static class ResumeRefusedException extends IOException {
+        ResumeRefusedException(String message) {
+            super(message);
+        }
+    }
 }
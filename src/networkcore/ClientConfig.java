@@ -0,0 +1,169 @@
+package networkcore;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning options for a Client. Setters return this so options can be chained.
+ */
+public class ClientConfig {
+
+    private Transport transport = Transport.THREAD_PER_CONNECTION;
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private MessageCodec codec = new BinaryCodec();
+    private int maxBatchSize = 64;
+    private long maxLingerNanos = 0;
+    private int outgoingQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    private long resumeTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private Executor callbackExecutor;
+    private long requestTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * THREAD_PER_CONNECTION, the default, connects with a socket; LOOPBACK
+     * connects to a LOOPBACK Server in this JVM.
+     */
+    public ClientConfig setTransport(Transport transport) {
+        if (transport == null)
+            throw new IllegalArgumentException("Transport can't be null.");
+        if (transport == Transport.SELECTOR)
+            throw new IllegalArgumentException("A Client can't use the SELECTOR transport.");
+        this.transport = transport;
+        return this;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    /**
+     * Kind of thread used for the send and receive threads.
+     */
+    public ClientConfig setThreadMode(ThreadMode threadMode) {
+        if (threadMode == null)
+            throw new IllegalArgumentException("Thread mode can't be null.");
+        this.threadMode = threadMode;
+        return this;
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Codec used for every frame. The Client and Server ends must use compatible codecs.
+     */
+    public ClientConfig setCodec(MessageCodec codec) {
+        if (codec == null)
+            throw new IllegalArgumentException("Codec can't be null.");
+        this.codec = codec;
+        return this;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Most messages a send loop writes before it flushes.
+     */
+    public ClientConfig setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1.");
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public long getMaxLingerNanos() {
+        return maxLingerNanos;
+    }
+
+    /**
+     * How long a send loop may wait for more messages before flushing a batch
+     * that is not full. Zero, the default, flushes as soon as the queue is drained.
+     */
+    public ClientConfig setMaxLinger(long time, TimeUnit unit) {
+        if (time < 0)
+            throw new IllegalArgumentException("The linger time can't be negative.");
+        this.maxLingerNanos = unit.toNanos(time);
+        return this;
+    }
+
+    public int getOutgoingQueueCapacity() {
+        return outgoingQueueCapacity;
+    }
+
+    /**
+     * Most messages that may wait in one connection's outgoing queue.
+     */
+    public ClientConfig setOutgoingQueueCapacity(int outgoingQueueCapacity) {
+        if (outgoingQueueCapacity < 1)
+            throw new IllegalArgumentException("The queue capacity must be at least 1.");
+        this.outgoingQueueCapacity = outgoingQueueCapacity;
+        return this;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * What to do when an outgoing queue is full. The default disconnects the slow receiver.
+     */
+    public ClientConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null)
+            throw new IllegalArgumentException("Overflow policy can't be null.");
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    public long getResumeTimeoutNanos() {
+        return resumeTimeoutNanos;
+    }
+
+    /**
+     * How long a Client keeps trying to resume its session after its
+     * connection drops, when the Server issued a session token. Zero gives up
+     * at once, as a Client without a token does.
+     */
+    public ClientConfig setResumeTimeout(long time, TimeUnit unit) {
+        if (time < 0)
+            throw new IllegalArgumentException("The resume timeout can't be negative.");
+        this.resumeTimeoutNanos = unit.toNanos(time);
+        return this;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Executor that runs messageReceived(), the other callbacks and the
+     * completion of request() futures, one at a time and in arrival order, so
+     * a slow handler never keeps the receive thread from reading. Null, the
+     * default, runs them on the receive thread itself.
+     */
+    public ClientConfig setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        return this;
+    }
+
+    public long getRequestTimeoutNanos() {
+        return requestTimeoutNanos;
+    }
+
+    /**
+     * How long request() waits for a response before failing its future with
+     * a TimeoutException. Zero waits until the connection closes.
+     */
+    public ClientConfig setRequestTimeout(long time, TimeUnit unit) {
+        if (time < 0)
+            throw new IllegalArgumentException("The request timeout can't be negative.");
+        this.requestTimeoutNanos = unit.toNanos(time);
+        return this;
+    }
+}
@@ -2,7 +2,7 @@ package networkcore;
 
 import java.io.Serializable;
 
-final public class DisconnectMessage {
+final public class DisconnectMessage implements Serializable {
 
     final public String message;
 
@@ -0,0 +1,28 @@
+package networkcore;
+
+/**
+ * A message together with its complete frame. The frame is encoded once and
+ * then shared, unmodified, by every connection the message is delivered to.
+ */
+final class EncodedMessage {
+
+    final Object message;
+    final byte[] frame;
+
+    /**
+     * False if the message may be dropped when its receiver falls behind.
+     */
+    final boolean critical;
+
+    /**
+     * Messages with equal non-null keys supersede each other in a conflating queue.
+     */
+    final Object conflationKey;
+
+    EncodedMessage(Object message, byte[] frame, boolean critical, Object conflationKey) {
+        this.message = message;
+        this.frame = frame;
+        this.critical = critical;
+        this.conflationKey = conflationKey;
+    }
+}
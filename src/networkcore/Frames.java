@@ -0,0 +1,59 @@
+package networkcore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Length-prefixed framing shared by every transport. A frame is a 4 byte
+ * big-endian body length followed by the body written by a MessageCodec.
+ */
+final class Frames {
+
+    static final int HEADER_LENGTH = 4;
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private Frames() { }
+
+    /**
+     * Encode a message into a complete frame, length prefix included, so that
+     * it can be written to a stream or wrapped in a ByteBuffer as-is.
+     */
+    static byte[] encode(MessageCodec codec, Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0);
+        codec.encode(message, output);
+        output.flush();
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - HEADER_LENGTH;
+        checkLength(length);
+        frame[0] = (byte)(length >>> 24);
+        frame[1] = (byte)(length >>> 16);
+        frame[2] = (byte)(length >>> 8);
+        frame[3] = (byte)length;
+        return frame;
+    }
+
+    static Object decode(MessageCodec codec, byte[] data, int offset, int length) throws IOException {
+        return codec.decode(new DataInputStream(new ByteArrayInputStream(data, offset, length)));
+    }
+
+    /**
+     * Read one frame from a blocking stream and decode its body.
+     */
+    static Object read(MessageCodec codec, DataInputStream input) throws IOException {
+        int length = input.readInt();
+        checkLength(length);
+        byte[] body = new byte[length];
+        input.readFully(body);
+        return decode(codec, body, 0, length);
+    }
+
+    static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH)
+            throw new IOException("Illegal frame length " + length + ".");
+    }
+}
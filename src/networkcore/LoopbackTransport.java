@@ -0,0 +1,272 @@
+package networkcore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-JVM transport: a Client and a Server in the same process exchange frames
+ * without sockets. Frames are still encoded and decoded by the configured
+ * codecs, so the wire format is exercised, but the encoded bytes are handed
+ * over by reference and never copied.
+ *
+ * Client to server, a frame is decoded on the sending thread and queued for
+ * the Server's inbound lanes. Server to client, each connection is a small
+ * actor: frames wait in its OutboundQueue and a shared pool delivers them to
+ * the Client in order, one connection at a time.
+ */
+final class LoopbackTransport {
+
+    private static final int BATCHES_PER_RUN = 4;
+
+    /* Servers listening on loopback "ports". */
+    private static final ConcurrentHashMap<Integer, Binding> servers = new ConcurrentHashMap<Integer, Binding>();
+
+    private static final ExecutorService delivery = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable task) {
+                    Thread thread = new DeliveryThread(task, "loopback-delivery-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private LoopbackTransport() { }
+
+    /* True on a delivery thread, which must never wait for a queue to drain. */
+    static boolean onDeliveryThread() {
+        return Thread.currentThread() instanceof DeliveryThread;
+    }
+
+    static void bind(int port, Server server, ServerConfig config) throws IOException {
+        if (servers.putIfAbsent(port, new Binding(server, config)) != null)
+            throw new IOException("Loopback port " + port + " is already in use.");
+    }
+
+    static void unbind(int port, Server server) {
+        Binding binding = servers.get(port);
+        if (binding != null && binding.server == server)
+            servers.remove(port, binding);
+    }
+
+    static ServerConnection connect(Client client, int port, ClientConfig config) throws IOException {
+        Binding binding = servers.get(port);
+        if (binding == null)
+            throw new IOException("Connection refused: no loopback server on port " + port + ".");
+        return new ClientEnd(client, binding, config);
+    }
+
+    private static class DeliveryThread extends Thread {
+        DeliveryThread(Runnable task, String name) {
+            super(task, name);
+        }
+    }
+
+    private static class Binding {
+
+        final Server server;
+        final MessageCodec codec;
+        final int maxBatchSize;
+        final int outgoingQueueCapacity;
+        final OverflowPolicy overflowPolicy;
+
+        Binding(Server server, ServerConfig config) {
+            this.server = server;
+            codec = config.getCodec();
+            maxBatchSize = config.getMaxBatchSize();
+            outgoingQueueCapacity = config.getOutgoingQueueCapacity();
+            overflowPolicy = config.getOverflowPolicy();
+        }
+    }
+
+    /* The client's end: sends go straight to the server's inbound lanes. */
+    private static class ClientEnd extends ServerConnection {
+
+        private final Client client;
+        private final Server server;
+        private final MessageCodec codec;
+        private final MessageCodec serverCodec;
+        private final ServerEnd serverEnd;
+        private final int playerID;
+        private volatile boolean closed;
+
+        ClientEnd(Client client, Binding binding, ClientConfig config) {
+            this.client = client;
+            server = binding.server;
+            codec = config.getCodec();
+            serverCodec = binding.codec;
+            playerID = server.allocatePlayerID();
+            serverEnd = new ServerEnd(this, binding);
+        }
+
+        int getPlayerID() {
+            return playerID;
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        void start() {
+            server.acceptConnection(serverEnd);
+        }
+
+        void send(Object message) {
+            byte[] frame;
+            try {
+                frame = Frames.encode(codec, message);
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException("The message could not be encoded: " + e);
+            }
+            client.getStats().messageEncoded();
+            if (closed)
+                return;
+            client.getStats().messageDelivered();
+            client.getStats().flushed(1);
+            Object received;
+            try {
+                received = Frames.decode(serverCodec, frame, Frames.HEADER_LENGTH, frame.length - Frames.HEADER_LENGTH);
+            }
+            catch (IOException e) {
+                serverEnd.closeWithError("Error while reading data from client.");
+                return;
+            }
+            if (received instanceof DisconnectMessage) {
+                serverEnd.clientDisconnected();
+                closed = true;
+            }
+            else
+                server.queueIncoming(serverEnd, received);
+        }
+
+        void close() {
+            if (closed)
+                return;
+            closed = true;
+            serverEnd.closeWithError("Error while reading data from client.");
+        }
+    }
+
+    /* The server's end: an actor that delivers queued frames to the client. */
+    private static class ServerEnd extends PlayerConnection implements Runnable {
+
+        private final ClientEnd clientEnd;
+        private final Server server;
+        private final MessageCodec clientCodec;
+        private final int maxBatchSize;
+        private final OutboundQueue outgoingMessages;
+        private final ArrayList<EncodedMessage> batch;  // Owned by whichever thread runs the actor.
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean slowConsumer;
+        private volatile boolean closed;
+
+        ServerEnd(ClientEnd clientEnd, Binding binding) {
+            this.clientEnd = clientEnd;
+            server = binding.server;
+            clientCodec = clientEnd.codec;
+            maxBatchSize = binding.maxBatchSize;
+            outgoingMessages = new OutboundQueue(binding.outgoingQueueCapacity, binding.overflowPolicy, server.getStats());
+            batch = new ArrayList<EncodedMessage>(maxBatchSize);
+        }
+
+        int getPlayerID() {
+            return clientEnd.playerID;
+        }
+
+        int getQueueHighWater() {
+            return outgoingMessages.getHighWater();
+        }
+
+        void send(EncodedMessage message) {
+            if (closed)
+                return;
+            int result = outgoingMessages.offer(message);
+            if (result == OutboundQueue.QUEUED)
+                server.getStats().messageDelivered();
+            else if (result == OutboundQueue.FULL && !slowConsumer) {
+                slowConsumer = true;
+                outgoingMessages.offer(server.slowConsumerDisconnect(this));
+            }
+            schedule();
+        }
+
+        /* Frames already queued are still delivered, up to any DisconnectMessage. */
+        void close() {
+            closed = true;
+            schedule();
+        }
+
+        void closeWithError(String message) {
+            if (closed)
+                return;
+            close();
+            server.connectionClosedWithError(this, message);
+        }
+
+        void clientDisconnected() {
+            closed = true;
+            outgoingMessages.close();
+            server.clientDisconnected(getPlayerID());
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                delivery.execute(this);
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < BATCHES_PER_RUN && !clientEnd.closed; i++) {
+                    batch.clear();
+                    if (outgoingMessages.drainTo(batch, maxBatchSize) == 0)
+                        break;
+                    int delivered = 0;
+                    for (EncodedMessage message : batch) {
+                        if (clientEnd.closed)
+                            break;
+                        if (message.message instanceof DisconnectMessage)
+                            closed = true;
+                        deliver(message);
+                        delivered++;
+                    }
+                    batch.clear();
+                    server.getStats().flushed(delivered);
+                }
+                if (closed && outgoingMessages.isEmpty()) {
+                    outgoingMessages.close();
+                    if (!clientEnd.closed)
+                        clientEnd.client.closedByError(clientEnd, "Connection closed by the server.");
+                }
+            }
+            finally {
+                scheduled.set(false);
+                if (!clientEnd.closed && (closed || !outgoingMessages.isEmpty()))
+                    schedule();
+            }
+        }
+
+        private void deliver(EncodedMessage message) {
+            byte[] frame = message.frame;
+            try {
+                Object received = Frames.decode(clientCodec, frame, Frames.HEADER_LENGTH,
+                        frame.length - Frames.HEADER_LENGTH);
+                clientEnd.client.frameReceived(clientEnd, received);
+            }
+            catch (IOException e) {
+                clientEnd.client.closedByError(clientEnd, "IO error occurred while waiting to receive  message.");
+            }
+            catch (Exception e) {
+                clientEnd.client.closedByError(clientEnd, "Unexpected internal error in receive thread: " + e);
+                System.out.println("\nUnexpected error while delivering a loopback message:");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package networkcore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Turns messages into frame bodies and back. Server and Client must be
+ * configured with compatible codecs. Implementations are shared by every
+ * connection and must be safe to call from several threads at once.
+ */
+public interface MessageCodec {
+
+    void encode(Object message, DataOutputStream output) throws IOException;
+
+    Object decode(DataInputStream input) throws IOException;
+}
@@ -0,0 +1,225 @@
+package networkcore;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of frames waiting to be written to one connection, with an
+ * OverflowPolicy deciding what happens when the receiver falls behind.
+ */
+final class OutboundQueue {
+
+    /* Results of offer(). */
+    static final int QUEUED = 0;
+    static final int CLOSED = 1;    // Dropped, because the connection is closing.
+    static final int FULL = 2;      // Not queued: the receiver is too slow and must be disconnected.
+
+    private final ArrayDeque<EncodedMessage> messages = new ArrayDeque<EncodedMessage>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final TransportStats stats;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int highWater;
+    private boolean closed;
+
+    OutboundQueue(int capacity, OverflowPolicy policy, TransportStats stats) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.stats = stats;
+    }
+
+    /**
+     * Queue a message. A DisconnectMessage discards everything still queued and
+     * is always accepted, unless the queue is closed.
+     * @return QUEUED, CLOSED or FULL
+     */
+    int offer(EncodedMessage message) {
+        return offer(message, true);
+    }
+
+    /**
+     * As offer(message), but a full BLOCK queue only waits if mayBlock; otherwise
+     * the receiver is treated as too slow, as under DISCONNECT.
+     */
+    int offer(EncodedMessage message, boolean mayBlock) {
+        lock.lock();
+        try {
+            if (closed)
+                return CLOSED;
+            if (message.message instanceof DisconnectMessage) {
+                messages.clear();
+                notFull.signalAll();
+                add(message);
+                return QUEUED;
+            }
+            if (policy == OverflowPolicy.CONFLATE && message.conflationKey != null && replace(message)) {
+                stats.messageConflated();
+                return QUEUED;
+            }
+            if (messages.size() >= capacity) {
+                switch (policy) {
+                    case BLOCK:
+                        if (!mayBlock)
+                            return FULL;
+                        stats.producerBlocked();
+                        while (messages.size() >= capacity && !closed)
+                            notFull.awaitUninterruptibly();
+                        if (closed)
+                            return CLOSED;
+                        break;
+                    case DROP_OLDEST:
+                    case CONFLATE:
+                        if (!dropOldest())
+                            return FULL;
+                        stats.messageDropped();
+                        break;
+                    default:
+                        return FULL;
+                }
+            }
+            add(message);
+            return QUEUED;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(EncodedMessage message) {
+        messages.add(message);
+        if (messages.size() > highWater) {
+            highWater = messages.size();
+            stats.queueDepth(highWater);
+        }
+        notEmpty.signal();
+    }
+
+    private boolean replace(EncodedMessage message) {
+        Iterator<EncodedMessage> queued = messages.iterator();
+        while (queued.hasNext()) {
+            if (message.conflationKey.equals(queued.next().conflationKey)) {
+                queued.remove();
+                messages.add(message);      // The newer state goes where newer messages go.
+                notEmpty.signal();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean dropOldest() {
+        Iterator<EncodedMessage> queued = messages.iterator();
+        while (queued.hasNext()) {
+            if (!queued.next().critical) {
+                queued.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    EncodedMessage take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (messages.isEmpty())
+                notEmpty.await();
+            return removeFirst();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    EncodedMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (messages.isEmpty()) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeFirst();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* Move up to max queued messages to the list without waiting. */
+    int drainTo(List<EncodedMessage> list, int max) {
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < max && !messages.isEmpty()) {
+                list.add(messages.poll());
+                count++;
+            }
+            if (count > 0)
+                notFull.signalAll();
+            return count;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private EncodedMessage removeFirst() {
+        EncodedMessage message = messages.poll();
+        notFull.signal();
+        return message;
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return messages.isEmpty();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            messages.clear();
+            notFull.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* Release any producer waiting for room; later offers are ignored. */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            messages.clear();
+            notFull.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Largest number of messages this queue has held at once.
+     */
+    int getHighWater() {
+        lock.lock();
+        try {
+            return highWater;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
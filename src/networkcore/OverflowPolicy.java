@@ -0,0 +1,32 @@
+package networkcore;
+
+/**
+ * What a connection does when its outgoing queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Make the sending thread wait for room. Simple, but one slow receiver
+     * then slows down every broadcast. A SELECTOR event loop can't wait, so a
+     * message it sends to a full queue disconnects the receiver instead.
+     */
+    BLOCK,
+
+    /**
+     * Drop the oldest queued message that is not critical. If everything queued
+     * is critical, the slow receiver is disconnected.
+     */
+    DROP_OLDEST,
+
+    /**
+     * A newer message replaces a queued one with the same conflation key (for
+     * example the latest StatusMessage replaces an older one still waiting).
+     * When the queue is full and nothing can be conflated, behaves like DROP_OLDEST.
+     */
+    CONFLATE,
+
+    /**
+     * Send the slow receiver a DisconnectMessage and close its connection.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,24 @@
+package networkcore;
+
+/**
+ * Server side handle for one connected player, independent of the transport
+ * that moves its bytes.
+ */
+abstract class PlayerConnection {
+
+    /* System.nanoTime() when the last frame arrived from this player. */
+    volatile long lastReceivedNanos = System.nanoTime();
+
+    /* Membership version this player joined at; it is sent the deltas after it. Set before it is registered. */
+    volatile long joinedVersion;
+
+    abstract int getPlayerID();
+
+    /* Queue an already encoded message for delivery to this player. */
+    abstract void send(EncodedMessage message);
+
+    abstract void close();
+
+    /* Largest number of messages that have waited in this connection's outgoing queue. */
+    abstract int getQueueHighWater();
+}
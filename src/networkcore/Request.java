@@ -0,0 +1,18 @@
+package networkcore;
+
+import java.io.Serializable;
+
+/**
+ * Sent by Client.request(): a message the Server answers with a Response
+ * carrying the same ID. The Server hands it to requestReceived().
+ */
+final class Request implements Serializable {
+
+    final long requestID;
+    final Object message;
+
+    Request(long requestID, Object message) {
+        this.requestID = requestID;
+        this.message = message;
+    }
+}
@@ -0,0 +1,12 @@
+package networkcore;
+
+/**
+ * Completes a Client.request() future when the Server refused the request
+ * with Server.respondWithError(); the message is the Server's reason.
+ */
+public class RequestFailedException extends Exception {
+
+    public RequestFailedException(String reason) {
+        super(reason);
+    }
+}
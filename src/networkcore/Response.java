@@ -0,0 +1,21 @@
+package networkcore;
+
+import java.io.Serializable;
+
+/**
+ * The Server's answer to a Request: completes the future Client.request()
+ * returned, with the message or, if failed, with a RequestFailedException
+ * whose message is the String sent.
+ */
+final class Response implements Serializable {
+
+    final long requestID;
+    final boolean failed;
+    final Object message;
+
+    Response(long requestID, boolean failed, Object message) {
+        this.requestID = requestID;
+        this.failed = failed;
+        this.message = message;
+    }
+}
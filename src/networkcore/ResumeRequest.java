@@ -0,0 +1,21 @@
+package networkcore;
+
+import java.io.Serializable;
+
+/**
+ * Sent by a Client instead of the hello string, to take back its session on a
+ * new connection. The Server answers with the old player ID and then sends the
+ * messages after the first received ones, or refuses with a DisconnectMessage.
+ */
+final class ResumeRequest implements Serializable {
+
+    final int playerID;
+    final long token;
+    final long received;    // Messages the Client got in this session, see Session.
+
+    ResumeRequest(int playerID, long token, long received) {
+        this.playerID = playerID;
+        this.token = token;
+        this.received = received;
+    }
+}
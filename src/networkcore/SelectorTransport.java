@@ -0,0 +1,358 @@
+package networkcore;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking transport for Server. One accept thread hands new channels
+ * round-robin to a fixed set of selector event loops, which do all reading,
+ * framing and writing for their connections.
+ */
+final class SelectorTransport {
+
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+
+    private final Server server;
+    private final MessageCodec codec;   // Only used for decoding; frames are encoded by the Server.
+    private final int maxBatchSize;
+    private final int outgoingQueueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final Thread acceptThread;
+    private volatile boolean shutdown;
+
+    SelectorTransport(Server server, int port, ServerConfig config) throws IOException {
+        this.server = server;
+        codec = config.getCodec();
+        maxBatchSize = config.getMaxBatchSize();
+        outgoingQueueCapacity = config.getOutgoingQueueCapacity();
+        overflowPolicy = config.getOverflowPolicy();
+        int loopCount = config.getSelectorThreads();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i);
+            loops[i].start();
+        }
+        acceptThread = new AcceptThread();
+        acceptThread.start();
+    }
+
+    /**
+     * Stop accepting new connections. Established connections stay open.
+     */
+    void closeListener() {
+        shutdown = true;
+        try {
+            serverChannel.close();
+        }
+        catch (IOException e) {
+        }
+    }
+
+    private class AcceptThread extends Thread {
+        public void run() {
+            int next = 0;
+            try {
+                while ( !shutdown ) {
+                    SocketChannel channel = serverChannel.accept();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                }
+            }
+            catch (Exception e) {
+                if (shutdown)
+                    System.out.println("Listener socket has shut down.");
+                else
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    /* True on an event loop thread, which must never wait for a queue to drain. */
+    static boolean onEventLoop() {
+        return Thread.currentThread() instanceof EventLoop;
+    }
+
+    private class EventLoop extends Thread {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> pendingChannels;
+        private final ConcurrentLinkedQueue<NioConnection> pendingWrites;
+
+        EventLoop(int index) throws IOException {
+            super("selector-loop-" + index);
+            setDaemon(true);
+            selector = Selector.open();
+            pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+            pendingWrites = new ConcurrentLinkedQueue<NioConnection>();
+        }
+
+        void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        void scheduleWrite(NioConnection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = pendingChannels.poll()) != null) {
+                        NioConnection connection = new NioConnection(this, channel);
+                        try {
+                            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                        }
+                        catch (ClosedChannelException e) {
+                            connection.close();
+                        }
+                    }
+                    NioConnection writer;
+                    while ((writer = pendingWrites.poll()) != null) {
+                        writer.writeScheduled.set(false);
+                        writer.flush();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection)key.attachment();
+                        if (!key.isValid())
+                            continue;
+                        if (key.isReadable())
+                            connection.read();
+                        if (key.isValid() && key.isWritable())
+                            connection.flush();
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Unexpected error in " + getName() + ".");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /* Handles communication with one client on its event loop. */
+    private class NioConnection extends PlayerConnection {
+
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer readBuffer;
+        private final OutboundQueue outgoingMessages;
+        /* Owned by the event loop: frames taken from the queue but not fully written yet. */
+        private final ArrayDeque<ByteBuffer> inFlight;
+        private final ArrayList<EncodedMessage> batch;
+        private final ByteBuffer[] gather;      // Frames handed to one gathering write.
+        private final AtomicBoolean writeScheduled;
+        private volatile int playerID;
+        private boolean handshaken;
+        private boolean disconnectTaken;        // A DisconnectMessage is in flight; nothing after it is sent.
+        private volatile boolean closeAfterFlush;
+        private volatile boolean slowConsumer;
+        private volatile boolean closed;
+
+        NioConnection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+            outgoingMessages = new OutboundQueue(outgoingQueueCapacity, overflowPolicy, server.getStats());
+            inFlight = new ArrayDeque<ByteBuffer>();
+            batch = new ArrayList<EncodedMessage>(maxBatchSize);
+            gather = new ByteBuffer[maxBatchSize];
+            writeScheduled = new AtomicBoolean();
+        }
+
+        int getPlayerID() {
+            return playerID;
+        }
+
+        int getQueueHighWater() {
+            return outgoingMessages.getHighWater();
+        }
+
+        /*
+         * An event loop never waits for room: the loop that would drain the queue
+         * may be itself, or another loop waiting on one of ours.
+         */
+        void send(EncodedMessage message) {
+            if (closed)
+                return;
+            int result = outgoingMessages.offer(message, !onEventLoop());
+            if (result == OutboundQueue.QUEUED)
+                server.getStats().messageDelivered();
+            else if (result == OutboundQueue.FULL && !slowConsumer) {
+                slowConsumer = true;
+                outgoingMessages.offer(server.slowConsumerDisconnect(this));
+            }
+            if (writeScheduled.compareAndSet(false, true))
+                loop.scheduleWrite(this);
+        }
+
+        void close() {
+            closed = true;
+            outgoingMessages.close();
+            if (key != null)
+                key.cancel();
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+            }
+        }
+
+        private void closeWithError(String message) {
+            if (closed)
+                return;
+            close();
+            if (handshaken)
+                server.connectionClosedWithError(this, message);
+        }
+
+        /* Called on the event loop when the channel is readable. */
+        void read() {
+            try {
+                int count = channel.read(readBuffer);
+                if (count < 0) {
+                    closeWithError("Error while reading data from client.");
+                    return;
+                }
+                readBuffer.flip();
+                while (!closed && readBuffer.remaining() >= Frames.HEADER_LENGTH) {
+                    int length = readBuffer.getInt(readBuffer.position());
+                    Frames.checkLength(length);
+                    if (readBuffer.remaining() < Frames.HEADER_LENGTH + length) {
+                        if (readBuffer.capacity() < Frames.HEADER_LENGTH + length) {
+                            ByteBuffer larger = ByteBuffer.allocate(Frames.HEADER_LENGTH + length);
+                            larger.put(readBuffer);
+                            larger.flip();
+                            readBuffer = larger;
+                        }
+                        break;
+                    }
+                    int start = readBuffer.position() + Frames.HEADER_LENGTH;
+                    readBuffer.position(start + length);
+                    frameReceived(Frames.decode(codec, readBuffer.array(), start, length));
+                }
+                readBuffer.compact();
+            }
+            catch (IOException e) {
+                closeWithError("Error while reading data from client.");
+            }
+            catch (Exception e) {
+                closeWithError("Internal Error: Unexpected exception in selector loop: " + e);
+                e.printStackTrace();
+            }
+        }
+
+        private void frameReceived(Object message) throws IOException {
+            if (!handshaken && message instanceof ResumeRequest) {
+                resume((ResumeRequest)message);
+            }
+            else if (!handshaken) {
+                if (! "Hello Server".equals(message))
+                    throw new IOException("Incorrect hello string received from client.");
+                playerID = server.allocatePlayerID();
+                handshaken = true;
+                send(server.encode(playerID));
+                server.acceptConnection(this);
+            }
+            else if (message instanceof DisconnectMessage) {
+                outgoingMessages.clear();
+                send(server.encode("* Good Bye *"));
+                closeAfterFlush = true;
+                server.clientDisconnected(playerID);
+            }
+            else
+                server.queueIncoming(this, message);
+        }
+
+        /* The player ID goes out first, then whatever the session replays. */
+        private void resume(ResumeRequest request) {
+            playerID = request.playerID;
+            if (server.canResume(request)) {
+                handshaken = true;
+                send(server.encode(playerID));
+                if (server.resumeConnection(this, request))
+                    return;
+            }
+            send(server.encode(new DisconnectMessage(Server.RESUME_REFUSED)));   // Replaces anything queued.
+            System.out.println("Session of client number " + playerID + " can't be resumed.");
+        }
+
+        /*
+         * Called on the event loop; writes as much as the socket will take, up to
+         * maxBatchSize queued frames per gathering write.
+         */
+        void flush() {
+            if (closed)
+                return;
+            try {
+                while (true) {
+                    if (inFlight.isEmpty() && !disconnectTaken) {
+                        batch.clear();
+                        outgoingMessages.drainTo(batch, maxBatchSize);
+                        for (EncodedMessage message : batch) {
+                            inFlight.add(ByteBuffer.wrap(message.frame));  // Private position over the shared frame.
+                            if (message.message instanceof DisconnectMessage) {
+                                disconnectTaken = true;
+                                closeAfterFlush = true;
+                                break;
+                            }
+                        }
+                        batch.clear();
+                    }
+                    if (inFlight.isEmpty())
+                        break;
+                    int count = 0;
+                    for (ByteBuffer frame : inFlight) {
+                        gather[count++] = frame;
+                        if (count == gather.length)
+                            break;
+                    }
+                    channel.write(gather, 0, count);
+                    int written = 0;
+                    while (written < count && !gather[written].hasRemaining()) {
+                        inFlight.poll();
+                        gather[written++] = null;
+                    }
+                    for (int i = written; i < count; i++)
+                        gather[i] = null;
+                    server.getStats().flushed(written);
+                    if (written < count) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                if (key != null && key.isValid())
+                    key.interestOps(SelectionKey.OP_READ);
+                if (closeAfterFlush)
+                    close();
+            }
+            catch (IOException e) {
+                closeWithError("Error while sending data to client.");
+            }
+        }
+    }
+}
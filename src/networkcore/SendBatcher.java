@@ -0,0 +1,37 @@
+package networkcore;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the next batch of outgoing messages for a send loop, so the loop
+ * can write them all through one buffered stream and flush once.
+ */
+final class SendBatcher {
+
+    private SendBatcher() { }
+
+    /**
+     * Wait for at least one message, then take whatever else is already queued,
+     * up to maxBatchSize. If lingerNanos is positive and the batch is not full,
+     * keep waiting up to that long for more messages to arrive.
+     */
+    static void nextBatch(OutboundQueue queue, List<EncodedMessage> batch, int maxBatchSize, long lingerNanos)
+            throws InterruptedException {
+        batch.add(queue.take());
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        if (lingerNanos <= 0)
+            return;
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return;
+            EncodedMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null)
+                return;
+            batch.add(next);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package networkcore;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on another
+ * executor's threads. At most one run is ever submitted to that executor, so
+ * a pool can serve many of these without breaking any one's order.
+ */
+final class SerialExecutor implements Executor, Runnable {
+
+    private static final int TASKS_PER_RUN = 64;   // Then give the pool thread back.
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (queued.getAndIncrement() == 0)
+            executor.execute(this);
+    }
+
+    public void run() {
+        int ran = 0;
+        int left;
+        do {
+            Runnable task = tasks.poll();
+            try {
+                task.run();
+            }
+            catch (RuntimeException e) {
+                System.out.println("\nUnexpected error in a client callback:");
+                e.printStackTrace();
+            }
+            ran++;
+            left = queued.decrementAndGet();
+        } while (left > 0 && ran < TASKS_PER_RUN);
+        if (left > 0)
+            executor.execute(this);
+    }
+}
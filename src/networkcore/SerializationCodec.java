@@ -0,0 +1,30 @@
+package networkcore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Plain Java serialization of every message. Works for any Serializable
+ * object, at the cost of class descriptors and reflection on every frame.
+ */
+public class SerializationCodec implements MessageCodec {
+
+    public void encode(Object message, DataOutputStream output) throws IOException {
+        ObjectOutputStream objectOutput = new ObjectOutputStream(output);
+        objectOutput.writeObject(message);
+        objectOutput.flush();
+    }
+
+    public Object decode(DataInputStream input) throws IOException {
+        ObjectInputStream objectInput = new ObjectInputStream(input);
+        try {
+            return objectInput.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException("Unknown message class: " + e.getMessage());
+        }
+    }
+}
@@ -1,64 +1,167 @@
 package networkcore;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.net.ConnectException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.TreeMap;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Server {
 
-    private TreeMap<Integer, ConnectionToClient> playerConnections;
-    private LinkedBlockingQueue<Message> incomingMessages;
+    /**
+     * Connected players by ID. A concurrent sorted map, so broadcasts, lookups,
+     * accepts and disconnects never wait for each other and iteration stays in
+     * player ID order.
+     */
+    private final ConcurrentSkipListMap<Integer, PlayerConnection> playerConnections;
 
     /**
-     * If the autoreset property is set to true, then the ObjectOutputStreams that are
-     * used for transmitting messages to clients is reset before each object is sent.
+     * Inbound messages and connect/disconnect events, partitioned by
+     * partitionKey(). Each lane has its own thread, so events with the same key
+     * are handled in order while different keys are handled in parallel.
      */
-    private volatile boolean autoreset;
+    private final Lane[] lanes;
 
+    /**
+     * Guards registry changes and the membership version. Under it each
+     * StatusMessage gets its version and is queued for the publisher, so the
+     * queue is in version order and a snapshot always matches its version.
+     * Nothing is sent while it is held: a send can block, and a connection
+     * that fails meanwhile needs the lock to leave.
+     */
+    private final ReentrantLock membershipLock = new ReentrantLock();
+    private long membershipVersion;
+    private final MembershipPublisher publisher;    // Null if membership updates are off.
+
+    private final ThreadMode threadMode;
+    private final MessageCodec codec;
+    private final TransportStats stats = new TransportStats();
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final int outgoingQueueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long idleTimeoutNanos;
+    private final long resumeGraceNanos;        // Zero if sessions can't be resumed.
+    private final int resumeBufferSize;
+    private final boolean membershipUpdates;
+    private final SecureRandom sessionTokens = new SecureRandom();
+
+    /* Serves idle checks here and any deadlines the game schedules, such as turn timers. */
+    private final TimerWheel timerWheel;
+
+    private final int port;
+    private final Transport transport;
+    private final ServerConfig config;  // Read again by listen().
+    private boolean listening;
     private ServerSocket serverSocket;
     private Thread serverThread;
+    private SelectorTransport selectorTransport;
     volatile private boolean shutdown;  // Set to true when the Server is not listening.
 
-    private int nextClientID = 1;   // The id number that will be assigned to
-                                    // the next client that connects.
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    /* StatusMessages that may wait for the publisher before registry changes wait too. */
+    private static final int MEMBERSHIP_BACKLOG = 256;
+
+    /* The answer to a ResumeRequest that can't take its session back. */
+    static final String RESUME_REFUSED = "*Session can't be resumed*";
+
+    private final AtomicInteger nextClientID = new AtomicInteger(1);   // The id number that will be assigned to
+                                                                        // the next client that connects.
 
     public Server(int port) throws IOException {
-        playerConnections = new TreeMap<Integer, ConnectionToClient>();
-        incomingMessages = new LinkedBlockingQueue<Message>();
-        serverSocket = new ServerSocket(port);
+        this(port, new ServerConfig());
+    }
+
+    public Server(int port, ServerConfig config) throws IOException {
+        this(port, config, true);
+    }
+
+    /**
+     * A subclass that must set itself up before the first player connects
+     * passes false, and calls listen() when it is ready.
+     */
+    protected Server(int port, ServerConfig config, boolean listen) throws IOException {
+        this.port = port;
+        transport = config.getTransport();
+        playerConnections = new ConcurrentSkipListMap<Integer, PlayerConnection>();
+        threadMode = config.getThreadMode();
+        codec = config.getCodec();
+        maxBatchSize = config.getMaxBatchSize();
+        maxLingerNanos = config.getMaxLingerNanos();
+        outgoingQueueCapacity = config.getOutgoingQueueCapacity();
+        overflowPolicy = config.getOverflowPolicy();
+        idleTimeoutNanos = config.getIdleTimeoutNanos();
+        resumeGraceNanos = config.getResumeGraceNanos();
+        resumeBufferSize = config.getResumeBufferSize();
+        if (resumeGraceNanos > 0 && resumeBufferSize > outgoingQueueCapacity)
+            throw new IllegalArgumentException("The resume buffer (" + resumeBufferSize
+                    + ") can't be larger than the outgoing queue capacity (" + outgoingQueueCapacity + ").");
+        membershipUpdates = config.isMembershipUpdates();
+        if (membershipUpdates) {
+            publisher = new MembershipPublisher();
+            publisher.start();
+        }
+        else
+            publisher = null;
+        timerWheel = new TimerWheel(config.getTimerTickNanos(), TimeUnit.NANOSECONDS, TIMER_WHEEL_SIZE, "server-timer");
+        lanes = new Lane[config.getInboundLanes()];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i);
+            lanes[i].start();
+        }
+        this.config = config;
+        if (listen)
+            listen();
+    }
+
+    /**
+     * Start accepting connections, for a Server constructed not to.
+     */
+    protected final void listen() throws IOException {
+        if (listening)
+            throw new IllegalStateException("The server is already listening.");
+        listening = true;
+        if (transport == Transport.SELECTOR) {
+            selectorTransport = new SelectorTransport(this, port, config);
+        }
+        else if (transport == Transport.LOOPBACK) {
+            LoopbackTransport.bind(port, this, config);
+        }
+        else {
+            serverSocket = new ServerSocket(port);
+            serverThread = threadMode.start(new ServerThread(), "server-listener");
+        }
         System.out.println("Listening for client connections on port " + port);
-        serverThread = new ServerThread();
-        serverThread.start();
-        Thread readerThread = new Thread() {    // Reader the message from incoming queue.
-            public void run() {
-                while (true) {
-                    try {
-                        Message msg = incomingMessages.take();
-                        messageReceived(msg.playerConnection, msg.message);
-                    }
-                    catch (Exception e) {
-                        System.out.println("Read message error.");
-                        e.printStackTrace();
-                    }
-                }
-            }
-        };
-        readerThread.setDaemon(true);
-        readerThread.start();
     }
 
     protected void messageReceived(int playerID, Object message) {
         sendToAll(new ForwardedMessage(playerID,message));
     }
 
+    /**
+     * A message sent with Client.request(). Answer it, from any thread, with
+     * respond() or respondWithError(); until then the client's future stays
+     * pending or times out. Runs on the same lane as the player's other
+     * messages. By default every request is refused.
+     */
+    protected void requestReceived(int playerID, long requestID, Object message) {
+        respondWithError(playerID, requestID, "This server does not answer requests.");
+    }
+
     protected void playerConnected(int playerID) {
 
     }
@@ -67,24 +170,74 @@ public class Server {
 
     }
 
+    /**
+     * Key that decides which inbound lane handles a message or event. Callbacks
+     * for equal keys run one at a time, in arrival order; callbacks for different
+     * keys may run at the same time on different lanes. The default keys by
+     * player, so each player's messages stay in order.
+     * @param message the received message, or null for a connect or disconnect event
+     */
+    protected int partitionKey(int playerID, Object message) {
+        return playerID;
+    }
+
+    /**
+     * Critical messages are never dropped from a slow player's outgoing queue.
+     * By default only StatusMessages are not critical: a client that misses one
+     * notices the version gap and asks for a snapshot. Resumed sessions count
+     * on every other message being delivered.
+     */
+    protected boolean isCritical(Object message) {
+        return !(message instanceof StatusMessage);
+    }
+
+    /**
+     * Messages with equal non-null keys replace each other in a CONFLATE
+     * queue, so a slow player only gets the newest. By default only
+     * StatusMessages conflate.
+     */
+    protected Object conflationKey(Object message) {
+        return message instanceof StatusMessage ? StatusMessage.class : null;
+    }
+
     protected void extraHandShake(int playerID, ObjectInputStream input, ObjectOutputStream output) throws IOException {
 
     }
 
-    synchronized public int[] getPlayerList() {
-        int[] playerList = new int[playerConnections.size()];
-        int i = 0;
-        for (int playerID : playerConnections.keySet()) {
-            playerList[i++] = playerID;
+    public int[] getPlayerList() {
+        Integer[] playerIDs = playerConnections.keySet().toArray(new Integer[0]);
+        int[] playerList = new int[playerIDs.length];
+        for (int i = 0; i < playerIDs.length; i++) {
+            playerList[i] = playerIDs[i];
         }
 
         return playerList;
     }
 
+    public boolean isConnected(int playerID) {
+        return playerConnections.containsKey(playerID);
+    }
+
+    /**
+     * Stop listening for new connections. Players that are already connected stay connected.
+     */
     public void shutdownServerSocket() {
-        incomingMessages.clear();
-        serverThread = null;
-        serverSocket = null;
+        shutdown = true;
+        if (selectorTransport != null) {
+            selectorTransport.closeListener();
+        }
+        else if (transport == Transport.LOOPBACK) {
+            LoopbackTransport.unbind(port, this);
+        }
+        else if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            }
+            catch (IOException e) {
+            }
+            serverThread = null;
+            serverSocket = null;
+        }
     }
 
     /**
@@ -93,28 +246,26 @@ public class Server {
     public void shutdownServer() {
         shutdownServerSocket();
         sendToAll(new DisconnectMessage("*Server shutdown*"));
-        for (ConnectionToClient client : playerConnections.values()) {
+        for (PlayerConnection client : playerConnections.values()) {
             client.close();
         }
     }
 
-    synchronized public void sendToAll(Object message) {
-        if (message == null)
-            throw new IllegalArgumentException("The message can't be null.");
-        if ( ! (message instanceof Serializable) )
-            throw new IllegalArgumentException("The message should implement Serializable.");
-        for (ConnectionToClient toPlayer : playerConnections.values())
-            toPlayer.send(message);
+    /**
+     * Send a message to every connected player. The message is encoded once and
+     * the same frame is written to every connection.
+     */
+    public void sendToAll(Object message) {
+        EncodedMessage encoded = encode(message);
+        for (PlayerConnection toPlayer : playerConnections.values())
+            toPlayer.send(encoded);
     }
 
-    synchronized public boolean sendToOne(int recipientID, Object message) {
-        if (message == null)
-            throw new IllegalArgumentException("The message can't be null.");
-        if ( ! (message instanceof Serializable) )
-            throw new IllegalArgumentException("The message should implement Serializable.");
-        ConnectionToClient toPlayer = playerConnections.get(recipientID);
+    public boolean sendToOne(int recipientID, Object message) {
+        EncodedMessage encoded = encode(message);
+        PlayerConnection toPlayer = playerConnections.get(recipientID);
         if (toPlayer != null) {
-            toPlayer.send(message);
+            toPlayer.send(encoded);
             return true;
         }
         else {
@@ -123,55 +274,441 @@ public class Server {
         }
     }
 
-    synchronized private void messageReceived(ConnectionToClient connection, Object message) {
-        int senderID = connection.getPlayerID();
-        messageReceived(senderID, message);
+    /**
+     * Complete the future of a player's request with this message.
+     * @return false if the player is not connected
+     */
+    public boolean respond(int playerID, long requestID, Object message) {
+        return sendToOne(playerID, new Response(requestID, false, message));
+    }
+
+    /**
+     * Fail the future of a player's request with a RequestFailedException
+     * carrying this reason.
+     */
+    public boolean respondWithError(int playerID, long requestID, String reason) {
+        return sendToOne(playerID, new Response(requestID, true, reason));
+    }
+
+    /**
+     * Send one message to several players, encoding it only once.
+     * @return the number of recipients that were connected
+     */
+    public int sendToSome(int[] recipientIDs, Object message) {
+        EncodedMessage encoded = encode(message);
+        int sent = 0;
+        for (int recipientID : recipientIDs) {
+            PlayerConnection toPlayer = playerConnections.get(recipientID);
+            if (toPlayer != null) {
+                toPlayer.send(encoded);
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Deepest the outgoing queue of one player has been, or -1 if the player is not connected.
+     */
+    public int getQueueHighWater(int playerID) {
+        PlayerConnection connection = playerConnections.get(playerID);
+        return connection == null ? -1 : connection.getQueueHighWater();
+    }
+
+    /**
+     * Encode, delivery and queue counters for all connections.
+     */
+    public TransportStats getStats() {
+        return stats;
+    }
+
+    /**
+     * The Server's timer. Tasks run on its single ticker thread, so they should
+     * only post work elsewhere.
+     */
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /* Check a message and encode it into a frame that can be shared by any number of connections. */
+    EncodedMessage encode(Object message) {
+        if (message == null)
+            throw new IllegalArgumentException("The message can't be null.");
+        if ( ! (message instanceof Serializable) )
+            throw new IllegalArgumentException("The message should implement Serializable.");
+        try {
+            EncodedMessage encoded = new EncodedMessage(message, Frames.encode(codec, message),
+                    isCritical(message), conflationKey(message));
+            stats.messageEncoded();
+            return encoded;
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("The message could not be encoded: " + e);
+        }
+    }
+
+    /* Runs on the lane that owns the message's key. */
+    private void dispatch(Message msg) {
+        switch (msg.kind) {
+            case Message.CONNECTED:
+                playerConnected(msg.playerID);
+                break;
+            case Message.DISCONNECTED:
+                playerDisconnected(msg.playerID);
+                break;
+            default:
+                if (msg.message instanceof Request) {
+                    Request request = (Request)msg.message;
+                    requestReceived(msg.playerID, request.requestID, request.message);
+                }
+                else
+                    messageReceived(msg.playerID, msg.message);
+        }
+    }
+
+    /* Queue a message that arrived on any transport for its inbound lane. */
+    void queueIncoming(PlayerConnection connection, Object message) {
+        connection.lastReceivedNanos = System.nanoTime();
+        if (message instanceof SnapshotRequest) {
+            sendMembershipSnapshot(connection);
+            return;
+        }
+        queueIncoming(new Message(Message.RECEIVED, connection.getPlayerID(), message));
+    }
+
+    private void queueIncoming(Message msg) {
+        Object message = msg.message instanceof Request ? ((Request)msg.message).message : msg.message;
+        int key = partitionKey(msg.playerID, message);
+        int hash = key ^ (key >>> 16);
+        lanes[(hash & Integer.MAX_VALUE) % lanes.length].messages.add(msg);
+    }
+
+    int allocatePlayerID() {
+        return nextClientID.getAndIncrement();
+    }
+
+    /**
+     * Never hand out player IDs up to this one again, e.g. the IDs of players in
+     * games recovered after a restart.
+     */
+    public void reservePlayerIDs(int highestPlayerID) {
+        int next = nextClientID.get();
+        while (next <= highestPlayerID && !nextClientID.compareAndSet(next, highestPlayerID + 1))
+            next = nextClientID.get();
     }
 
     /**
-     * Accept connection, add the new connection to TreeMap and send StatusMessage to all clients.
+     * Accept connection, add the new connection to the registry, send it a membership
+     * snapshot and send the join delta to all other clients, unless membership
+     * updates are off.
      * @param connection
      */
-    synchronized private void acceptConnection(ConnectionToClient connection) {
+    void acceptConnection(PlayerConnection connection) {
         int playerID = connection.getPlayerID();
-        playerConnections.put(playerID, connection);
-        StatusMessage sm = new StatusMessage(playerID, true, getPlayerList());
-        sendToAll(sm);
-        playerConnected(playerID);
+        PlayerConnection registered = connection;
+        if (resumeGraceNanos > 0) {
+            Session session = new Session(playerID, sessionTokens.nextLong(), resumeBufferSize, connection);
+            connection.send(encode(new SessionToken(session.getToken())));
+            registered = session;
+        }
+        if (membershipUpdates)
+            addAndAnnounce(playerID, registered);
+        else
+            playerConnections.put(playerID, registered);
+        queueIncoming(new Message(Message.CONNECTED, playerID, null));
         System.out.println("Connection accepted from client number " + playerID);
+        connection.lastReceivedNanos = System.nanoTime();
+        if (idleTimeoutNanos > 0)
+            scheduleIdleCheck(connection, idleTimeoutNanos);
+    }
+
+    private void addAndAnnounce(int playerID, PlayerConnection registered) {
+        boolean waited = waitForPublisher(2);
+        membershipLock.lock();
+        try {
+            long version = ++membershipVersion;
+            registered.joinedVersion = version;
+            playerConnections.put(playerID, registered);
+            publisher.updates.add(new StatusUpdate(StatusMessage.snapshot(version, getPlayerList()), registered, waited));
+            publisher.updates.add(new StatusUpdate(StatusMessage.delta(version, playerID, true), null, waited));
+        }
+        finally {
+            membershipLock.unlock();
+        }
+    }
+
+    /*
+     * A ResumeRequest arrived on a socket transport: true if it may take its
+     * session back. The transport then answers with the player ID, before
+     * anything else, and calls resumeConnection().
+     */
+    boolean canResume(ResumeRequest request) {
+        PlayerConnection registered = playerConnections.get(request.playerID);
+        return registered instanceof Session && ((Session)registered).canResume(request.token, request.received);
+    }
+
+    /*
+     * Move a session to its new connection and send what the player missed,
+     * then a membership snapshot. Returns false if the session can't be
+     * resumed after all; the transport then refuses with a DisconnectMessage.
+     */
+    boolean resumeConnection(PlayerConnection connection, ResumeRequest request) {
+        PlayerConnection registered = playerConnections.get(request.playerID);
+        if (!(registered instanceof Session)
+                || !((Session)registered).attach(connection, request.token, request.received))
+            return false;
+        stats.sessionResumed();
+        sendMembershipSnapshot(registered);
+        System.out.println("Session of client number " + request.playerID + " resumed.");
+        connection.lastReceivedNanos = System.nanoTime();
+        if (idleTimeoutNanos > 0)
+            scheduleIdleCheck(connection, idleTimeoutNanos);
+        return true;
+    }
+
+    /* The transport connection a player is reached on right now, or null. */
+    private PlayerConnection currentConnection(int playerID) {
+        PlayerConnection registered = playerConnections.get(playerID);
+        return registered instanceof Session ? ((Session)registered).getConnection() : registered;
+    }
+
+    private void scheduleIdleCheck(final PlayerConnection connection, long delayNanos) {
+        timerWheel.schedule(new Runnable() {
+            public void run() {
+                checkIdle(connection);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * On the timer thread: disconnect the player if nothing arrived for the idle
+     * timeout, otherwise check again when it would run out.
+     */
+    private void checkIdle(PlayerConnection connection) {
+        if (currentConnection(connection.getPlayerID()) != connection)
+            return;
+        long idle = System.nanoTime() - connection.lastReceivedNanos;
+        if (idle < idleTimeoutNanos) {
+            scheduleIdleCheck(connection, idleTimeoutNanos - idle);
+            return;
+        }
+        stats.idleDisconnected();
+        connectionLost(connection, false);
+        connection.send(encode(new DisconnectMessage("*Disconnected: idle*")));
+        System.out.println("Connection with client ID " + connection.getPlayerID() + " closed after being idle.");
     }
 
     /**
-     * Remove connection information from TreeMap and send StatusMessage to all clients if the client is disconnected.
+     * Remove connection information from the registry and send the leave delta to all clients if the client is disconnected.
      * @param playerID
      */
-    synchronized private void clientDisconnected(int playerID) {
-        if (playerConnections.containsKey(playerID)) {
-            playerConnections.remove(playerID);
-            StatusMessage sm = new StatusMessage(playerID, false, getPlayerList());
-            sendToAll(sm);
-            playerDisconnected(playerID);
+    void clientDisconnected(int playerID) {
+        if (removeConnection(playerID, null)) {
+            queueIncoming(new Message(Message.DISCONNECTED, playerID, null));
             System.out.println("Connection with client ID " + playerID + "closed by DisconnectedMessage.");
         }
     }
 
-    synchronized private void connectionToClientClosedWithError(ConnectionToClient playerConnection, String message) {
-        int ID = playerConnection.getPlayerID();
-        if (playerConnections.remove(ID) != null) {
-            StatusMessage sm = new StatusMessage(ID, false, getPlayerList());
-            sendToAll(sm);
+    void connectionClosedWithError(PlayerConnection playerConnection, String message) {
+        connectionLost(playerConnection, true);
+    }
+
+    /*
+     * A transport connection is gone. With sessions, a resumable loss only
+     * detaches the player's session; the player leaves if it is not resumed
+     * within the grace period.
+     */
+    private void connectionLost(PlayerConnection connection, boolean resumable) {
+        int playerID = connection.getPlayerID();
+        PlayerConnection registered = playerConnections.get(playerID);
+        if (registered instanceof Session) {
+            final Session session = (Session)registered;
+            final int detach = session.detach(connection);
+            if (detach < 0)
+                return;     // An older connection of a resumed session.
+            if (resumable) {
+                timerWheel.schedule(new Runnable() {
+                    public void run() {
+                        if (session.expire(detach)) {
+                            stats.sessionExpired();
+                            if (removeConnection(session.getPlayerID(), session))
+                                queueIncoming(new Message(Message.DISCONNECTED, session.getPlayerID(), null));
+                        }
+                    }
+                }, resumeGraceNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+            connection = session;
+        }
+        if (removeConnection(playerID, connection)) {
+            queueIncoming(new Message(Message.DISCONNECTED, playerID, null));
+        }
+    }
+
+    /* Remove a player (only if still registered with expected, when given) and announce it. */
+    private boolean removeConnection(int playerID, PlayerConnection expected) {
+        boolean waited = membershipUpdates && waitForPublisher(1);
+        boolean removed = false;
+        membershipLock.lock();
+        try {
+            removed = expected == null ? playerConnections.remove(playerID) != null
+                    : playerConnections.remove(playerID, expected);
+            if (removed && membershipUpdates)
+                publisher.updates.add(new StatusUpdate(StatusMessage.delta(++membershipVersion, playerID, false),
+                        null, waited));
+        }
+        finally {
+            membershipLock.unlock();
+            if (waited && !removed)
+                publisher.room.release();
+        }
+        return removed;
+    }
+
+    private void sendMembershipSnapshot(PlayerConnection connection) {
+        if (!membershipUpdates)
+            return;
+        boolean waited = waitForPublisher(1);
+        membershipLock.lock();
+        try {
+            publisher.updates.add(new StatusUpdate(StatusMessage.snapshot(membershipVersion, getPlayerList()),
+                    connection, waited));
+        }
+        finally {
+            membershipLock.unlock();
+        }
+    }
+
+    /*
+     * Called before membershipLock: wait until the publisher has room for this
+     * many more updates, so registry changes can't outrun it. Returns false
+     * without waiting on a thread the publisher may itself be waiting for (its
+     * own, or one that drains outgoing queues) or on the timer thread, which
+     * serves every turn deadline and whose idle and expiry checks must be short.
+     */
+    private boolean waitForPublisher(int updates) {
+        if (Thread.currentThread() == publisher || SelectorTransport.onEventLoop()
+                || LoopbackTransport.onDeliveryThread() || timerWheel.isTickerThread())
+            return false;
+        publisher.room.acquireUninterruptibly(updates);
+        return true;
+    }
+
+    /*
+     * Called by a connection whose outgoing queue overflowed. The player leaves the
+     * registry at once; the returned DisconnectMessage is still written if it can be.
+     */
+    EncodedMessage slowConsumerDisconnect(PlayerConnection playerConnection) {
+        stats.slowConsumerDisconnected();
+        connectionLost(playerConnection, false);
+        return encode(new DisconnectMessage("*Disconnected: too many messages waiting*"));
+    }
+
+    /* A StatusMessage and, for a snapshot, the one player it goes to. */
+    private static class StatusUpdate {
+        final StatusMessage status;
+        final PlayerConnection recipient;   // Null for a delta.
+        final boolean tookRoom;             // Queued by a thread that waited for the publisher.
+
+        StatusUpdate(StatusMessage status, PlayerConnection recipient, boolean tookRoom) {
+            this.status = status;
+            this.recipient = recipient;
+            this.tookRoom = tookRoom;
+        }
+    }
+
+    private static class Message {
+        static final int RECEIVED = 0;
+        static final int CONNECTED = 1;
+        static final int DISCONNECTED = 2;
+
+        final int kind;
+        final int playerID;
+        final Object message;
+
+        Message(int kind, int playerID, Object message) {
+            this.kind = kind;
+            this.playerID = playerID;
+            this.message = message;
         }
     }
 
-    private class Message {
-        ConnectionToClient playerConnection;
-        Object message;
+    /* One inbound worker: takes the messages of its partition in order. */
+    private class Lane extends Thread {
+
+        final LinkedBlockingQueue<Message> messages = new LinkedBlockingQueue<Message>();
+
+        Lane(int index) {
+            super("inbound-lane-" + index);
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    dispatch(messages.take());
+                }
+                catch (Exception e) {
+                    System.out.println("Read message error.");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the StatusMessages in version order, so no thread that changes the
+     * registry waits for a send, or sends for the others. A delta goes to the
+     * players registered when it is sent that joined before its version; those
+     * that joined later get it in their snapshot. Room for MEMBERSHIP_BACKLOG
+     * updates is given back as they are sent.
+     */
+    private class MembershipPublisher extends Thread {
+
+        final LinkedBlockingQueue<StatusUpdate> updates = new LinkedBlockingQueue<StatusUpdate>();
+        final Semaphore room = new Semaphore(MEMBERSHIP_BACKLOG, true);
+
+        MembershipPublisher() {
+            super("membership-publisher");
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (true) {
+                StatusUpdate update;
+                try {
+                    update = updates.take();
+                }
+                catch (InterruptedException e) {
+                    continue;
+                }
+                try {
+                    EncodedMessage encoded = encode(update.status);
+                    if (update.recipient != null)
+                        update.recipient.send(encoded);
+                    else {
+                        for (PlayerConnection toPlayer : playerConnections.values()) {
+                            if (toPlayer.joinedVersion < update.status.version)
+                                toPlayer.send(encoded);
+                        }
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("Send membership update error.");
+                    e.printStackTrace();
+                }
+                finally {
+                    if (update.tookRoom)
+                        room.release();
+                }
+            }
+        }
     }
 
     /**
      * Listen client's connection requests.
      */
-    private class ServerThread extends Thread {
+    private class ServerThread implements Runnable {
         public void run() {
             try {
                 while ( !shutdown) {
@@ -180,39 +717,38 @@ public class Server {
                         System.out.println("Listener socket has shut down.");
                         break;
                     }
-                    new ConnectionToClient(incomingMessages, connection);
+                    new ConnectionToClient(connection);
                 }
             }
             catch (Exception e) {
                 if (shutdown) {
                     System.out.println("The Server was shutdown.");
                 }
-                e.printStackTrace();
+                else
+                    e.printStackTrace();
             }
 
         }
     }
 
     /* Handles communication with one client. */
-    private class ConnectionToClient {
+    private class ConnectionToClient extends PlayerConnection {
 
         private int playerID;
-        private BlockingQueue<Message> incomingMessages;        //incomingMessage from Server
-        private LinkedBlockingQueue<Object> outgoingMessages;   // Send all subclass of Object as message.
+        private OutboundQueue outgoingMessages;   // Frames waiting to be written.
         private Socket connection;
-        /* I/O Stream */
-        ObjectInputStream input;
-        ObjectOutputStream output;
+        /* I/O Stream, carrying length-prefixed frames. */
+        DataInputStream input;
+        DataOutputStream output;
         private volatile boolean closed;   // Set to true when connection is closing normally.
-        private Thread sendThread;
+        private volatile boolean slowConsumer;  // Set when the outgoing queue overflowed.
+        private volatile Thread sendThread;
         private volatile Thread receiveThread;
 
-        ConnectionToClient(BlockingQueue<Message> receivedMessageQueue, Socket connection) {
+        ConnectionToClient(Socket connection) {
             this.connection = connection;
-            incomingMessages = receivedMessageQueue;
-            outgoingMessages = new LinkedBlockingQueue<Object>();
-            sendThread = new SendThread();
-            sendThread.start();
+            outgoingMessages = new OutboundQueue(outgoingQueueCapacity, overflowPolicy, stats);
+            sendThread = threadMode.start(new SendThread(), "client-send");
         }
 
         int getPlayerID() {
@@ -224,7 +760,9 @@ public class Server {
          */
         void close() {
             closed = true;
-            sendThread.interrupt();
+            outgoingMessages.close();
+            if (sendThread != null)
+                sendThread.interrupt();
             if (receiveThread != null)
                 receiveThread.interrupt();
             try {
@@ -234,37 +772,61 @@ public class Server {
             }
         }
 
-        /*  Drop message into message output queue. */
-        void send(Object obj) {
-            if (obj instanceof DisconnectMessage) {   // Clean the outgoing queue if the obj is instance of DisconnectMessage.
-                outgoingMessages.clear();
+        /*  Drop message into message output queue; a DisconnectMessage replaces everything still queued. */
+        void send(EncodedMessage obj) {
+            int result = outgoingMessages.offer(obj);
+            if (result == OutboundQueue.QUEUED)
+                stats.messageDelivered();
+            else if (result == OutboundQueue.FULL && !slowConsumer) {
+                slowConsumer = true;
+                outgoingMessages.offer(slowConsumerDisconnect(this));
             }
-            outgoingMessages.add(obj);
         }
 
+        int getQueueHighWater() {
+            return outgoingMessages.getHighWater();
+        }
+
+        /* Closed first, so a sender blocked on this connection's full queue lets go of its locks. */
         private void closeWithError(String message) {
-            connectionToClientClosedWithError(this, message);
             close();
+            connectionClosedWithError(this, message);
+        }
+
+        private void writeFrame(EncodedMessage message) throws IOException {
+            output.write(message.frame);
+            output.flush();
         }
 
-        private class SendThread extends Thread {
+        private class SendThread implements Runnable {
             public void run() {
                 try {
-                    output = new ObjectOutputStream(connection.getOutputStream());
-                    input = new ObjectInputStream(connection.getInputStream());
-                    String handle = (String) input.readObject();
-                    if (! "Hello Server".equals(handle))
-                        throw new Exception("Incorrect hello string received from client.");
-                    synchronized (Server.this) {
-                        playerID = nextClientID++;
+                    output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                    input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                    Object handle = Frames.read(codec, input);
+                    if (handle instanceof ResumeRequest) {
+                        ResumeRequest request = (ResumeRequest)handle;
+                        playerID = request.playerID;
+                        if (!canResume(request) || !resumeConnection(ConnectionToClient.this, request)) {
+                            writeFrame(encode(new DisconnectMessage(RESUME_REFUSED)));
+                            closed = true;
+                            connection.close();
+                            System.out.println("Session of client number " + playerID + " can't be resumed.");
+                            return;
+                        }
+                        writeFrame(encode(playerID));     // Before the queued messages the session replays.
                     }
-                    output.writeObject(playerID);
-                    output.flush();
-                    acceptConnection(ConnectionToClient.this);
-                    receiveThread = new ReceiveThread();
-                    receiveThread.start();
+                    else if ("Hello Server".equals(handle)) {
+                        playerID = allocatePlayerID();
+                        writeFrame(encode(playerID));
+                        acceptConnection(ConnectionToClient.this);
+                    }
+                    else
+                        throw new Exception("Incorrect hello string received from client.");
+                    receiveThread = threadMode.start(new ReceiveThread(), "client-receive-" + playerID);
                 }
                 catch (Exception e) {
+                    connectionClosedWithError(ConnectionToClient.this, "Error while setting up connection.");
                     try {
                         closed = true;
                         connection.close();
@@ -277,18 +839,25 @@ public class Server {
                 }
 
                 try {
+                    ArrayList<EncodedMessage> batch = new ArrayList<EncodedMessage>(maxBatchSize);
                     while( !closed ) {
                         try {
-                            Object message = outgoingMessages.take();
-                            if (message instanceof ResetSignal)
-                                output.reset();
-                            else {
-                                if (autoreset)
-                                    output.reset();
-                                output.writeObject(message);
-                                output.flush();
-                                if (message instanceof DisconnectMessage)
-                                    close();
+                            batch.clear();
+                            SendBatcher.nextBatch(outgoingMessages, batch, maxBatchSize, maxLingerNanos);
+                            boolean disconnect = false;
+                            int written = 0;
+                            for (EncodedMessage message : batch) {
+                                output.write(message.frame);
+                                written++;
+                                if (message.message instanceof DisconnectMessage) {
+                                    disconnect = true;
+                                    break;
+                                }
+                            }
+                            output.flush();     // One flush for the whole batch.
+                            stats.flushed(written);
+                            if (disconnect) {
+                                close();
                             }
                         }
                         catch (InterruptedException e) {
@@ -308,21 +877,17 @@ public class Server {
             }
         }
 
-        private class ReceiveThread extends Thread {
+        private class ReceiveThread implements Runnable {
             public void run() {
                 try {
                     while ( ! closed ) {
-                        Object message = input.readObject();
-                        Message msg = new Message();
-                        msg.playerConnection = ConnectionToClient.this;
-                        msg.message = message;
+                        Object message = Frames.read(codec, input);
                         if (!(message instanceof DisconnectMessage))
-                            incomingMessages.add(msg);
+                            queueIncoming(ConnectionToClient.this, message);
                         else {
                             closed = true;
                             outgoingMessages.clear();
-                            output.writeObject("* Good Bye *");
-                            output.flush();
+                            writeFrame(encode("* Good Bye *"));
                             clientDisconnected(playerID);
                             close();
                         }
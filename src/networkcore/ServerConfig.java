@@ -0,0 +1,250 @@
+package networkcore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning options for a Server. Setters return this so options can be chained.
+ */
+public class ServerConfig {
+
+    private Transport transport = Transport.THREAD_PER_CONNECTION;
+    private int selectorThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private MessageCodec codec = new BinaryCodec();
+    private int maxBatchSize = 64;
+    private long maxLingerNanos = 0;
+    private int outgoingQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    private int inboundLanes = Runtime.getRuntime().availableProcessors();
+    private long idleTimeoutNanos = 0;
+    private long timerTickNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private long resumeGraceNanos = 0;
+    private int resumeBufferSize = 256;
+    private boolean membershipUpdates = true;
+
+    public ServerConfig() {
+    }
+
+    /**
+     * A copy of other, e.g. for a Server that must override some options
+     * without changing a config its caller may reuse.
+     */
+    public ServerConfig(ServerConfig other) {
+        transport = other.transport;
+        selectorThreads = other.selectorThreads;
+        threadMode = other.threadMode;
+        codec = other.codec;
+        maxBatchSize = other.maxBatchSize;
+        maxLingerNanos = other.maxLingerNanos;
+        outgoingQueueCapacity = other.outgoingQueueCapacity;
+        overflowPolicy = other.overflowPolicy;
+        inboundLanes = other.inboundLanes;
+        idleTimeoutNanos = other.idleTimeoutNanos;
+        timerTickNanos = other.timerTickNanos;
+        resumeGraceNanos = other.resumeGraceNanos;
+        resumeBufferSize = other.resumeBufferSize;
+        membershipUpdates = other.membershipUpdates;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public ServerConfig setTransport(Transport transport) {
+        if (transport == null)
+            throw new IllegalArgumentException("Transport can't be null.");
+        this.transport = transport;
+        return this;
+    }
+
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    /**
+     * Number of event loops used by the SELECTOR transport.
+     */
+    public ServerConfig setSelectorThreads(int selectorThreads) {
+        if (selectorThreads < 1)
+            throw new IllegalArgumentException("At least one selector thread is required.");
+        this.selectorThreads = selectorThreads;
+        return this;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    /**
+     * Kind of thread used for the listener and the per-connection threads of
+     * the THREAD_PER_CONNECTION transport.
+     */
+    public ServerConfig setThreadMode(ThreadMode threadMode) {
+        if (threadMode == null)
+            throw new IllegalArgumentException("Thread mode can't be null.");
+        this.threadMode = threadMode;
+        return this;
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Codec used for every frame. The Client and Server ends must use compatible codecs.
+     */
+    public ServerConfig setCodec(MessageCodec codec) {
+        if (codec == null)
+            throw new IllegalArgumentException("Codec can't be null.");
+        this.codec = codec;
+        return this;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Most messages a send loop writes before it flushes.
+     */
+    public ServerConfig setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1.");
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public long getMaxLingerNanos() {
+        return maxLingerNanos;
+    }
+
+    /**
+     * How long a send loop may wait for more messages before flushing a batch
+     * that is not full. Zero, the default, flushes as soon as the queue is drained.
+     */
+    public ServerConfig setMaxLinger(long time, TimeUnit unit) {
+        if (time < 0)
+            throw new IllegalArgumentException("The linger time can't be negative.");
+        this.maxLingerNanos = unit.toNanos(time);
+        return this;
+    }
+
+    public int getOutgoingQueueCapacity() {
+        return outgoingQueueCapacity;
+    }
+
+    /**
+     * Most messages that may wait in one connection's outgoing queue.
+     */
+    public ServerConfig setOutgoingQueueCapacity(int outgoingQueueCapacity) {
+        if (outgoingQueueCapacity < 1)
+            throw new IllegalArgumentException("The queue capacity must be at least 1.");
+        this.outgoingQueueCapacity = outgoingQueueCapacity;
+        return this;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * What to do when an outgoing queue is full. The default disconnects the slow receiver.
+     */
+    public ServerConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null)
+            throw new IllegalArgumentException("Overflow policy can't be null.");
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    public int getInboundLanes() {
+        return inboundLanes;
+    }
+
+    /**
+     * Number of threads that run the Server callbacks. See Server.partitionKey().
+     */
+    public ServerConfig setInboundLanes(int inboundLanes) {
+        if (inboundLanes < 1)
+            throw new IllegalArgumentException("At least one inbound lane is required.");
+        this.inboundLanes = inboundLanes;
+        return this;
+    }
+
+    public long getIdleTimeoutNanos() {
+        return idleTimeoutNanos;
+    }
+
+    /**
+     * Disconnect players that send nothing for this long. Zero, the default,
+     * never disconnects idle players.
+     */
+    public ServerConfig setIdleTimeout(long time, TimeUnit unit) {
+        if (time < 0)
+            throw new IllegalArgumentException("The idle timeout can't be negative.");
+        this.idleTimeoutNanos = unit.toNanos(time);
+        return this;
+    }
+
+    public long getTimerTickNanos() {
+        return timerTickNanos;
+    }
+
+    /**
+     * Resolution of the Server's TimerWheel.
+     */
+    public ServerConfig setTimerTick(long time, TimeUnit unit) {
+        if (time <= 0)
+            throw new IllegalArgumentException("The timer tick must be positive.");
+        this.timerTickNanos = unit.toNanos(time);
+        return this;
+    }
+
+    public long getResumeGraceNanos() {
+        return resumeGraceNanos;
+    }
+
+    /**
+     * How long a player whose connection dropped stays connected, waiting for
+     * the Client to resume its session on a new connection. Zero, the default,
+     * issues no session tokens and disconnects the player at once.
+     */
+    public ServerConfig setResumeGracePeriod(long time, TimeUnit unit) {
+        if (time < 0)
+            throw new IllegalArgumentException("The grace period can't be negative.");
+        this.resumeGraceNanos = unit.toNanos(time);
+        return this;
+    }
+
+    public int getResumeBufferSize() {
+        return resumeBufferSize;
+    }
+
+    /**
+     * Most messages a resumed session can have missed. A Client that missed
+     * more can't resume and is disconnected when the grace period ends. The
+     * missed messages are queued at once on resume, so with sessions on this
+     * can't be larger than the outgoing queue capacity.
+     */
+    public ServerConfig setResumeBufferSize(int resumeBufferSize) {
+        if (resumeBufferSize < 1)
+            throw new IllegalArgumentException("The resume buffer must hold at least 1 message.");
+        this.resumeBufferSize = resumeBufferSize;
+        return this;
+    }
+
+    public boolean isMembershipUpdates() {
+        return membershipUpdates;
+    }
+
+    /**
+     * Whether every player is sent the list of connected players and told of
+     * each connect and disconnect. On by default; turn it off for servers with
+     * many players who don't need the list, since every connect then costs a
+     * message to every player.
+     */
+    public ServerConfig setMembershipUpdates(boolean membershipUpdates) {
+        this.membershipUpdates = membershipUpdates;
+        return this;
+    }
+}
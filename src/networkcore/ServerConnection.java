@@ -0,0 +1,28 @@
+package networkcore;
+
+/**
+ * Client side handle for the connection to the server, independent of the
+ * transport that moves its bytes.
+ */
+abstract class ServerConnection {
+
+    /* Why the connection dropped, once the Client has decided to resume its session. */
+    volatile String lostReason;
+
+    abstract int getPlayerID();
+
+    abstract boolean isClosed();
+
+    /* Start delivering messages; called once the Client holds this connection. */
+    abstract void start();
+
+    /* Encode a message and queue it for the server. */
+    abstract void send(Object message);
+
+    abstract void close();
+
+    /* True if the Client can take its session to a new connection when this one drops. */
+    boolean canResume() {
+        return false;
+    }
+}
@@ -0,0 +1,151 @@
+package networkcore;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A player's place in the Server's registry when sessions can be resumed. It
+ * outlives the transport connection: when the connection drops the session
+ * is detached for a grace period, and a Client that presents its token on a
+ * new connection gets its player ID back and only the messages it missed.
+ *
+ * Every message sent to the player, except membership StatusMessages, is
+ * numbered and kept in a bounded ring. A resuming Client says how many it
+ * received; membership is brought up to date with a snapshot instead.
+ *
+ * Sends hold the lock while they queue to the connection, so messages go out
+ * in the order they are numbered, and under BLOCK they may wait there. So
+ * whatever must end such a wait closes the connection before it takes the
+ * lock, and reading the connection takes no lock at all.
+ */
+final class Session extends PlayerConnection {
+
+    private final int playerID;
+    private final long token;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final EncodedMessage[] sent;    // The latest messages, by number modulo the length.
+    private long count;                     // Messages numbered so far.
+    private volatile PlayerConnection connection;   // Null while detached; only changed holding the lock.
+    private int detaches;                   // Tells a grace period apart from later ones.
+    private volatile boolean closed;
+
+    Session(int playerID, long token, int bufferSize, PlayerConnection connection) {
+        this.playerID = playerID;
+        this.token = token;
+        sent = new EncodedMessage[bufferSize];
+        this.connection = connection;
+    }
+
+    int getPlayerID() {
+        return playerID;
+    }
+
+    long getToken() {
+        return token;
+    }
+
+    PlayerConnection getConnection() {
+        return connection;
+    }
+
+    void send(EncodedMessage message) {
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            if (!(message.message instanceof StatusMessage || message.message instanceof DisconnectMessage
+                    || message.message instanceof SessionToken))
+                sent[(int)(count++ % sent.length)] = message;
+            PlayerConnection current = connection;
+            if (current != null)
+                current.send(message);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    int getQueueHighWater() {
+        PlayerConnection current = connection;
+        return current == null ? 0 : current.getQueueHighWater();
+    }
+
+    void close() {
+        closed = true;
+        PlayerConnection current = connection;
+        if (current != null)
+            current.close();
+    }
+
+    /**
+     * Forget a connection that dropped. Returns the number of this grace
+     * period, or -1 if it is not the session's connection any more.
+     */
+    int detach(PlayerConnection dropped) {
+        lock.lock();
+        try {
+            if (connection != dropped || closed)
+                return -1;
+            connection = null;
+            return ++detaches;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * End the session if it is still detached since the given detach(); after
+     * that it can't be resumed. Returns false if it was resumed meanwhile.
+     */
+    boolean expire(int detach) {
+        lock.lock();
+        try {
+            if (connection != null || detaches != detach || closed)
+                return false;
+            closed = true;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* True if a Client with this token that received so many messages can resume. */
+    boolean canResume(long token, long received) {
+        lock.lock();
+        try {
+            return !closed && token == this.token && received <= count && received >= count - sent.length;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a new connection, closing any old one the Server didn't see drop,
+     * and send it the messages after the first received ones before anything
+     * else. The Server keeps the ring no larger than the connection's queue, so
+     * they fit even though nothing drains the queue yet. Returns false if the
+     * session can't be resumed after all.
+     */
+    boolean attach(PlayerConnection resumed, long token, long received) {
+        if (token != this.token)
+            return false;
+        PlayerConnection old = connection;
+        if (old != null)
+            old.close();        // Before locking: a send may be waiting on it.
+        lock.lock();
+        try {
+            if (!canResume(token, received))
+                return false;
+            connection = resumed;
+            detaches++;
+            for (long number = received; number < count; number++)
+                resumed.send(sent[(int)(number % sent.length)]);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package networkcore;
+
+import java.io.Serializable;
+
+/**
+ * Sent by a Server that lets sessions be resumed, as the first message after
+ * the handshake. The Client keeps the token to resume the session after its
+ * connection drops; the message never reaches messageReceived().
+ */
+final class SessionToken implements Serializable {
+
+    final long token;
+
+    SessionToken(long token) {
+        this.token = token;
+    }
+}
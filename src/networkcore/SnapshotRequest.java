@@ -0,0 +1,10 @@
+package networkcore;
+
+import java.io.Serializable;
+
+/**
+ * Sent by a Client that missed a membership change. The Server answers with a
+ * snapshot StatusMessage; the request never reaches messageReceived().
+ */
+final class SnapshotRequest implements Serializable {
+}
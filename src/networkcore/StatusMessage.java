@@ -2,8 +2,19 @@ package networkcore;
 
 import java.io.Serializable;
 
+/**
+ * A change to the set of connected players. Every change gets the next
+ * membership version, so a client can tell when it has missed one and ask for
+ * a snapshot: a StatusMessage that carries the complete player list as of its
+ * version instead of a single change.
+ */
 final class StatusMessage implements Serializable {
 
+    public final long version;
+
+    /**
+     * The player that joined or left; unused in a snapshot.
+     */
     public final int playerID;
 
     /**
@@ -13,14 +24,26 @@ final class StatusMessage implements Serializable {
     public final boolean connecting;
 
     /**
-     * Players' list.
+     * Players' list, only sent in a snapshot; null in a delta.
      */
     public final int[] players;
 
-    public StatusMessage(int playerID, boolean connecting, int[] players) {
+    public StatusMessage(long version, int playerID, boolean connecting, int[] players) {
+        this.version = version;
         this.playerID = playerID;
         this.connecting = connecting;
         this.players = players;
     }
 
+    static StatusMessage delta(long version, int playerID, boolean connecting) {
+        return new StatusMessage(version, playerID, connecting, null);
+    }
+
+    static StatusMessage snapshot(long version, int[] players) {
+        return new StatusMessage(version, -1, false, players);
+    }
+
+    public boolean isSnapshot() {
+        return players != null;
+    }
 }
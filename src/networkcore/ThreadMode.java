@@ -0,0 +1,66 @@
+package networkcore;
+
+import java.lang.reflect.Method;
+
+/**
+ * Kind of thread used for the blocking connection threads of Server and Client.
+ */
+public enum ThreadMode {
+
+    PLATFORM,
+
+    /**
+     * Virtual threads, so blocking reads and queue takes park cheaply. Needs a
+     * Java 21+ runtime; on older runtimes platform threads are used instead.
+     */
+    VIRTUAL;
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+        }
+        catch (Exception e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_UNSTARTED = unstarted;
+    }
+
+    /**
+     * True if this runtime can create virtual threads.
+     */
+    public static boolean virtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create and start a thread of this kind.
+     */
+    Thread start(Runnable task, String name) {
+        Thread thread = null;
+        if (this == VIRTUAL && OF_VIRTUAL != null) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                thread = (Thread)BUILDER_UNSTARTED.invoke(builder, task);
+            }
+            catch (Exception e) {
+                System.out.println("Could not create virtual thread, using platform thread: " + e);
+            }
+        }
+        if (thread == null)
+            thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,245 @@
+package networkcore;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Hashed timing wheel: one thread serves every timeout of a server, such as
+ * turn deadlines and idle connection checks, however many there are.
+ *
+ * The wheel is a ring of buckets, each a doubly linked list of timeouts, and a
+ * ticker thread visits one bucket per tick. Scheduling only appends to a
+ * lock-free queue that the ticker moves into the right bucket, and cancelling
+ * only marks the timeout and queues it for unlinking, so both are O(1) and
+ * never wait for the ticker. A timeout that is further away than one turn of
+ * the wheel counts down the rounds it has left each time its bucket comes up.
+ *
+ * Tasks run on the ticker thread and must be short; hand any real work to
+ * another thread, e.g. by posting an event.
+ */
+public final class TimerWheel {
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final long startTime;
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    private final Thread ticker;
+    private volatile boolean stopped;
+    private long tick;      // Ticker thread only.
+
+    /**
+     * @param tickDuration resolution of the timer; timeouts fire up to one tick late
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize, String name) {
+        if (tickDuration <= 0)
+            throw new IllegalArgumentException("The tick duration must be positive.");
+        if (wheelSize < 1 || wheelSize > (1 << 20))
+            throw new IllegalArgumentException("The wheel size must be between 1 and 2^20.");
+        int size = 1;
+        while (size < wheelSize)
+            size <<= 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new Bucket();
+        mask = size - 1;
+        tickNanos = unit.toNanos(tickDuration);
+        startTime = System.nanoTime();
+        ticker = new Thread(new Ticker(), name);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Run task once after the delay, on the ticker thread.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null)
+            throw new IllegalArgumentException("The task can't be null.");
+        if (stopped)
+            throw new IllegalStateException("The timer has been stopped.");
+        long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * True when called from a task, i.e. on this wheel's ticker thread.
+     */
+    public boolean isTickerThread() {
+        return Thread.currentThread() == ticker;
+    }
+
+    /**
+     * Stop the ticker. Timeouts that have not fired yet never will.
+     */
+    public void stop() {
+        stopped = true;
+        ticker.interrupt();
+    }
+
+    /**
+     * A scheduled task. Cancel it to keep it from running.
+     */
+    public static final class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimerWheel timer;
+        private final Runnable task;
+        private final long deadline;        // Nanos since the wheel started.
+        private volatile int state;
+
+        /* Owned by the ticker thread. */
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(TimerWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Returns false if the task already ran or was already cancelled.
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+                return false;
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED))
+                return;
+            try {
+                task.run();
+            }
+            catch (Exception e) {
+                System.out.println("Timer task failed.");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /* A doubly linked list of timeouts, only touched by the ticker thread. */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = tail;
+            if (tail == null)
+                head = timeout;
+            else
+                tail.next = timeout;
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous == null)
+                head = timeout.next;
+            else
+                timeout.previous.next = timeout.next;
+            if (timeout.next == null)
+                tail = timeout.previous;
+            else
+                timeout.next.previous = timeout.previous;
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void expire(long now) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= now) {
+                    remove(timeout);
+                    timeout.expire();
+                }
+                else if (timeout.state == Timeout.CANCELLED)
+                    remove(timeout);
+                else
+                    timeout.remainingRounds--;
+                timeout = next;
+            }
+        }
+    }
+
+    private class Ticker implements Runnable {
+        public void run() {
+            while ( !stopped ) {
+                long now = waitForNextTick();
+                if (stopped)
+                    break;
+                removeCancelled();
+                transferPending();
+                wheel[(int)(tick & mask)].expire(now);
+                tick++;
+            }
+        }
+
+        /* Sleep until the current tick is over; returns the time in nanos since the start. */
+        private long waitForNextTick() {
+            long end = tickNanos * (tick + 1);
+            while (true) {
+                long now = System.nanoTime() - startTime;
+                long sleepNanos = end - now;
+                if (sleepNanos <= 0)
+                    return now;
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                catch (InterruptedException e) {
+                    if (stopped)
+                        return now;
+                }
+            }
+        }
+
+        private void removeCancelled() {
+            Timeout timeout;
+            while ((timeout = cancelled.poll()) != null) {
+                if (timeout.bucket != null)
+                    timeout.bucket.remove(timeout);
+            }
+        }
+
+        private void transferPending() {
+            for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+                Timeout timeout = pending.poll();
+                if (timeout == null)
+                    break;
+                if (timeout.state != Timeout.PENDING)
+                    continue;
+                long due = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (due - tick) / wheel.length;
+                wheel[(int)(Math.max(due, tick) & mask)].add(timeout);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package networkcore;
+
+/**
+ * How a Server moves bytes between itself and its clients. A Client uses a
+ * socket unless it is set to LOOPBACK.
+ */
+public enum Transport {
+
+    /**
+     * One blocking send thread and one blocking receive thread per client.
+     */
+    THREAD_PER_CONNECTION,
+
+    /**
+     * A few non-blocking event loops built on java.nio.channels.Selector.
+     */
+    SELECTOR,
+
+    /**
+     * Server and clients in the same JVM, without sockets. The port only names
+     * the Server. Frames are handed over by reference and each client's
+     * messages are delivered by a shared pool of threads, so thousands of
+     * clients need no threads of their own.
+     */
+    LOOPBACK
+}
@@ -0,0 +1,169 @@
+package networkcore;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters kept by a Server for all of its connections.
+ */
+public class TransportStats {
+
+    private final LongAdder encodedMessages = new LongAdder();
+    private final LongAdder deliveredMessages = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedMessages = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder conflatedMessages = new LongAdder();
+    private final LongAdder blockedProducers = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+    private final LongAdder idleDisconnects = new LongAdder();
+    private final LongAdder resumedSessions = new LongAdder();
+    private final LongAdder expiredSessions = new LongAdder();
+    private final AtomicInteger queueHighWater = new AtomicInteger();
+
+    void messageEncoded() {
+        encodedMessages.increment();
+    }
+
+    void messageDelivered() {
+        deliveredMessages.increment();
+    }
+
+    void flushed(int messages) {
+        flushes.increment();
+        flushedMessages.add(messages);
+    }
+
+    void messageDropped() {
+        droppedMessages.increment();
+    }
+
+    void messageConflated() {
+        conflatedMessages.increment();
+    }
+
+    void producerBlocked() {
+        blockedProducers.increment();
+    }
+
+    void slowConsumerDisconnected() {
+        slowConsumerDisconnects.increment();
+    }
+
+    void idleDisconnected() {
+        idleDisconnects.increment();
+    }
+
+    void sessionResumed() {
+        resumedSessions.increment();
+    }
+
+    void sessionExpired() {
+        expiredSessions.increment();
+    }
+
+    void queueDepth(int depth) {
+        int current;
+        while (depth > (current = queueHighWater.get())) {
+            if (queueHighWater.compareAndSet(current, depth))
+                return;
+        }
+    }
+
+    /**
+     * Number of messages encoded into frames.
+     */
+    public long getEncodedMessages() {
+        return encodedMessages.sum();
+    }
+
+    /**
+     * Number of frames queued to connections. With broadcasts this is larger
+     * than the encode count, since one encoded frame goes to every recipient.
+     */
+    public long getDeliveredMessages() {
+        return deliveredMessages.sum();
+    }
+
+    /**
+     * Number of flushes (or gathering writes) done by the send loops.
+     */
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * Number of messages written by those flushes.
+     */
+    public long getFlushedMessages() {
+        return flushedMessages.sum();
+    }
+
+    public double getMessagesPerFlush() {
+        long count = getFlushes();
+        return count == 0 ? 0 : (double)getFlushedMessages() / count;
+    }
+
+    /**
+     * Messages dropped from full DROP_OLDEST or CONFLATE queues.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * Queued messages replaced by a newer one with the same conflation key.
+     */
+    public long getConflatedMessages() {
+        return conflatedMessages.sum();
+    }
+
+    /**
+     * Times a sender had to wait for room in a full BLOCK queue.
+     */
+    public long getBlockedProducers() {
+        return blockedProducers.sum();
+    }
+
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+
+    /**
+     * Connections closed because the player sent nothing for too long.
+     */
+    public long getIdleDisconnects() {
+        return idleDisconnects.sum();
+    }
+
+    /**
+     * Sessions resumed on a new connection after the old one dropped.
+     */
+    public long getResumedSessions() {
+        return resumedSessions.sum();
+    }
+
+    /**
+     * Sessions that ended because nobody resumed them within the grace period.
+     */
+    public long getExpiredSessions() {
+        return expiredSessions.sum();
+    }
+
+    /**
+     * Deepest any single outgoing queue has been.
+     */
+    public int getQueueHighWater() {
+        return queueHighWater.get();
+    }
+
+    public String toString() {
+        return "encoded=" + getEncodedMessages() + " delivered=" + getDeliveredMessages() +
+                " flushes=" + getFlushes() + " messagesPerFlush=" + getMessagesPerFlush() +
+                " dropped=" + getDroppedMessages() + " conflated=" + getConflatedMessages() +
+                " blocked=" + getBlockedProducers() + " slowDisconnects=" + getSlowConsumerDisconnects() +
+                " idleDisconnects=" + getIdleDisconnects() +
+                " resumed=" + getResumedSessions() + " expired=" + getExpiredSessions() +
+                " queueHighWater=" + getQueueHighWater();
+    }
+}